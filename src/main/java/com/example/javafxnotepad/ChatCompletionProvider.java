@@ -0,0 +1,275 @@
+package com.example.javafxnotepad;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Completions from any OpenAI-compatible /chat/completions endpoint: Groq, OpenAI, a local llama.cpp
+ * or Ollama server, or {@link LocalSuggestionServer}.
+ *
+ * With streaming on, the answer comes as server-sent events and is handed out token by token, so the
+ * ghost starts to show after the time to the first token instead of after the whole generation.
+ */
+public class ChatCompletionProvider implements SuggestionProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatCompletionProvider.class);
+
+    private static final String PROMPT = "You are a code completion engine. ONLY complete the user's last input as code. "
+            + "Do not explain anything. Start with the user's input, dont even add spaces or anything in between users text  "
+            + "keep the same users text and complete it and return it. Also don't utter anything else.\n";
+
+    // Streaming: repeating the input first would delay the first new token by the whole context, so the
+    // model is asked for the continuation only. An echo is still tolerated, see continuationOf.
+    private static final String CONTINUE_PROMPT = "You are a code completion engine. Reply with ONLY the code that comes "
+            + "right after the user's input, starting exactly where the input ends. Do not repeat the input, "
+            + "do not explain anything, no markdown.\n";
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final String endpoint;
+    private final String model;
+    private final String apiKey; // null for servers without auth
+    private final boolean stream;
+
+    private final OkHttpClient client = HttpClients.shared();
+    private final Gson gson = new Gson();
+
+    //Typing on into a suggestion, or backspacing to text seen before, is answered from here
+    private final SuggestionCache cache = new SuggestionCache();
+
+    private volatile double latencyMillis = -1; // smoothed round trip (time to first token when streaming), -1 until known
+
+    public ChatCompletionProvider(String endpoint, String model, String apiKey, boolean stream) {
+        this.endpoint = endpoint;
+        this.model = model;
+        this.apiKey = apiKey;
+        this.stream = stream;
+    }
+
+    @Override
+    public CompletableFuture<String> getSuggestion(String context, String following) {
+        return getSuggestion(context, following, null);
+    }
+
+    /**
+     * Answers from the cache are built the same way as the model's: context + cached continuation, and
+     * come at once without onText calls. Cancelling the returned future cancels the HTTP call, also in
+     * the middle of a stream.
+     */
+    @Override
+    public CompletableFuture<String> getSuggestion(String context, String following, Consumer<String> onText) {
+        String cached = cache.lookup(context);
+        if (cached != null) {
+            logger.debug("Suggestion cache: {}", cache);
+            return CompletableFuture.completedFuture(context + cached);
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        boolean streaming = stream && onText != null;
+
+        // instructions and reference go in the system message, the user message is only the code to complete
+        JsonArray messages = new JsonArray();
+        messages.add(message("system", (streaming ? CONTINUE_PROMPT : PROMPT) + referencePart(following)));
+        messages.add(message("user", context));
+
+        JsonObject body = new JsonObject();
+        body.addProperty("model", model);
+        body.add("messages", messages);
+        body.addProperty("temperature", 0.2);
+        body.addProperty("max_tokens", 200);
+        if (streaming) body.addProperty("stream", true);
+
+        Call call = client.newCall(request(RequestBody.create(gson.toJson(body), JSON)));
+        long started = System.nanoTime();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody responseBody = response.body()) {
+                    if (!response.isSuccessful()) {
+                        future.completeExceptionally(new IOException("Unexpected code " + response));
+                        return;
+                    }
+                    String suggestion;
+                    if (streaming) {
+                        suggestion = context + readStream(new BufferedReader(responseBody.charStream()), context, onText, started);
+                    } else {
+                        suggestion = JsonParser.parseString(responseBody.string())
+                                .getAsJsonObject()
+                                .getAsJsonArray("choices")
+                                .get(0).getAsJsonObject()
+                                .getAsJsonObject("message")
+                                .get("content").getAsString()
+                                .trim();
+                        recordLatency((System.nanoTime() - started) / 1e6);
+                    }
+                    remember(context, suggestion);
+                    future.complete(suggestion);
+                } catch (IOException | RuntimeException e) {
+                    // cancel() lands here as an IOException from the socket, the future is cancelled already
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+
+        //a newer keystroke cancels the future, that must abort the request too, not just ignore its answer
+        future.whenComplete((ignored, e) -> {
+            if (future.isCancelled()) call.cancel();
+        });
+        return future;
+    }
+
+    /**
+     * Reads "data: {json}" events until "data: [DONE]" or the end of the body and returns the
+     * continuation. Each event's delta goes to onText as soon as it is known not to be part of an
+     * echo of the context.
+     */
+    private String readStream(BufferedReader reader, String context, Consumer<String> onText, long started)
+            throws IOException {
+        StringBuilder answer = new StringBuilder();
+        String delivered = "";
+        boolean firstToken = true;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("data:")) continue; // blank separators, comments, event names
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) break;
+
+            JsonArray choices = JsonParser.parseString(data).getAsJsonObject().getAsJsonArray("choices");
+            if (choices == null || choices.isEmpty()) continue; // usage-only event at the end
+            JsonObject delta = choices.get(0).getAsJsonObject().getAsJsonObject("delta");
+            JsonElement content = delta == null ? null : delta.get("content");
+            if (content == null || content.isJsonNull()) continue; // role-only first event, finish event
+            answer.append(content.getAsString());
+
+            String continuation = continuationOf(context, answer);
+            if (continuation == null || !continuation.startsWith(delivered)) continue;
+            if (continuation.length() > delivered.length()) {
+                if (firstToken) {
+                    firstToken = false;
+                    recordLatency((System.nanoTime() - started) / 1e6);
+                }
+                onText.accept(continuation.substring(delivered.length()));
+                delivered = continuation;
+            }
+        }
+
+        String continuation = continuationOf(context, answer);
+        return continuation == null ? "" : continuation.stripTrailing();
+    }
+
+    /**
+     * The new text in a (partial) answer. Models sometimes repeat the input anyway; while the answer so
+     * far could still be such an echo this returns null, once it is longer the echo is cut off.
+     */
+    static String continuationOf(String context, CharSequence answerSoFar) {
+        String answer = answerSoFar.toString();
+        String stripped = context.stripLeading(); // echoes tend to lose the leading whitespace
+        if (answer.length() < context.length() && context.startsWith(answer)) return null;
+        if (answer.length() < stripped.length() && stripped.startsWith(answer)) return null;
+
+        if (answer.startsWith(context)) return answer.substring(context.length());
+        if (answer.startsWith(stripped)) return answer.substring(stripped.length());
+        return answer;
+    }
+
+    /**
+     * Opens the connection (DNS, TCP, TLS, HTTP/2 settings) so it is already in the pool when the
+     * first completion is requested. The answer itself doesn't matter, a 404 or 405 warms up as well.
+     */
+    @Override
+    public void warmUp() {
+        long started = System.nanoTime();
+        client.newCall(request(null)).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                System.out.println("Suggestion warm-up failed: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                System.out.printf("Suggestion warm-up: %s %d in %.0f ms%n",
+                        response.protocol(), response.code(), (System.nanoTime() - started) / 1e6);
+            }
+        });
+    }
+
+    // POST with a body, HEAD without one
+    private Request request(RequestBody body) {
+        Request.Builder builder = new Request.Builder().url(endpoint);
+        if (apiKey != null && !apiKey.isBlank()) {
+            builder.header("Authorization", "Bearer " + apiKey);
+        }
+        return body == null ? builder.head().build() : builder.post(body).build();
+    }
+
+    private static JsonObject message(String role, String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", role);
+        message.addProperty("content", content);
+        return message;
+    }
+
+    private static String referencePart(String following) {
+        if (following == null || following.isBlank()) return "";
+        return "For reference only, this code comes right after the input and must not be repeated:\n"
+                + following + "\n---\n";
+    }
+
+    @Override
+    public double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    private void recordLatency(double millis) {
+        double current = latencyMillis;
+        latencyMillis = current < 0 ? millis : current + 0.2 * (millis - current);
+    }
+
+    public SuggestionCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public String describe() {
+        return model + " at " + endpoint + (stream ? ", streaming" : "");
+    }
+
+    // Only cache answers that really start with the context, otherwise the continuation is unknown.
+    // The answer is trimmed, so leading whitespace of the context may be missing from it.
+    private void remember(String context, String suggestion) {
+        String continuation = null;
+        if (suggestion.startsWith(context)) {
+            continuation = suggestion.substring(context.length());
+        } else if (suggestion.startsWith(context.stripLeading())) {
+            continuation = suggestion.substring(context.stripLeading().length());
+        }
+        if (continuation != null && !continuation.isBlank()) {
+            cache.put(context, continuation);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.javafxnotepad;
+
+import javafx.application.Platform;
+
+import java.util.function.Consumer;
+
+/**
+ * Collects text produced on a background thread and hands it to the FX thread in batches.
+ * At most one Platform.runLater is queued at a time; whatever arrives meanwhile is merged into
+ * the next batch, so a fast producer cannot flood the FX event queue.
+ */
+public class CoalescingUiUpdater {
+
+    private final Consumer<String> sink;
+    private final StringBuilder pending = new StringBuilder();
+    private boolean scheduled = false;
+
+    /** The sink always runs on the FX thread */
+    public CoalescingUiUpdater(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+    public void append(CharSequence text) {
+        synchronized (this) {
+            pending.append(text);
+            if (scheduled) return;
+            scheduled = true;
+        }
+        Platform.runLater(this::flush);
+    }
+
+    private void flush() {
+        String batch;
+        synchronized (this) {
+            batch = pending.toString();
+            pending.setLength(0);
+            scheduled = false;
+        }
+        if (!batch.isEmpty()) {
+            sink.accept(batch);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.javafxnotepad;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Runs the user's program off the FX thread: the compile step(s) and then the program itself, one after
+ * the other, with stdout and stderr merged and handed out in chunks as they are produced. A program
+ * that never exits only keeps this runner's thread busy, and {@link #stop()} kills it with its children.
+ * Every run is held to the limits of a {@link ProcessSupervisor}, which also reaps what it leaves behind.
+ */
+public class CodeRunner {
+
+    /** Builds the steps on the runner thread, so writing the source files doesn't block the UI either */
+    public interface Plan {
+        List<Step> steps() throws IOException;
+    }
+
+    /** Starts one process of a run, with stderr merged into stdout */
+    public interface Step {
+        Process start() throws IOException;
+    }
+
+    /**
+     * A step that hands over a process started before the run, like a warm worker. What it used before
+     * (the JVM start, its own compile) is not counted against the limits or in the profile.
+     */
+    public interface PooledStep extends Step {
+    }
+
+    public static Step step(ProcessBuilder builder) {
+        //stderr to stdout catches (error + normal) output
+        return () -> ProcessSupervisor.isolate(builder).redirectErrorStream(true).start();
+    }
+
+    /** Work done on the runner thread instead of starting processes, e.g. running Java in-process */
+    public interface Task {
+        /** Returns how it ended; millis and stopped are filled in by the runner */
+        Result run(Consumer<String> output) throws Exception;
+
+        /** Called from another thread on Stop */
+        void stop();
+    }
+
+    /**
+     * How a run ended. exitCode is -1 if no process ran or it was stopped. limit is the limit that
+     * stopped the run, null if none did. profile is null if nothing was measured.
+     */
+    public record Result(int exitCode, boolean compileFailed, boolean stopped, long millis, Exception error,
+                         String limit, Profile profile) {
+        public Result(int exitCode, boolean compileFailed, boolean stopped, long millis, Exception error) {
+            this(exitCode, compileFailed, stopped, millis, error, null, null);
+        }
+
+        Result supervised(String limit, Profile profile) {
+            return new Result(exitCode, compileFailed, stopped, millis, error, limit, profile);
+        }
+    }
+
+    /**
+     * Where a run's time went. compileMillis covers the build steps (0 when the build came from the
+     * cache), runMillis the program. cpuMillis and peakRssBytes are the program's, sampled from its
+     * process tree; -1 where they could not be measured.
+     */
+    public record Profile(long compileMillis, long runMillis, long cpuMillis, long peakRssBytes) {
+    }
+
+    private static final int CHUNK = 8192;
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "code-runner");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ProcessSupervisor supervisor = new ProcessSupervisor(ProcessSupervisor.Limits.fromProperties());
+    private volatile Process current;
+    private volatile Task currentTask;
+    private volatile boolean stopRequested;
+    private volatile boolean running;
+    private volatile long compileMillis; // of the current run
+    private volatile long runMillis;
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Every step but the last is a build step: if one exits with non-zero, the run ends there.
+     * output and done are called on the runner thread.
+     */
+    public void run(Plan plan, Consumer<String> output, Consumer<Result> done) {
+        if (running) throw new IllegalStateException("A program is already running");
+        running = true;
+        stopRequested = false;
+        runner.execute(() -> {
+            long started = System.nanoTime();
+            Result result;
+            compileMillis = 0;
+            runMillis = -1;
+            supervisor.begin(this::stop);
+            try {
+                result = runSteps(plan.steps(), output, started);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                result = new Result(-1, false, stopRequested, elapsed(started), stopRequested ? null : e);
+            } finally {
+                supervisor.end();
+                current = null;
+                running = false;
+            }
+            done.accept(result.supervised(supervisor.exceeded(), supervisor.profile(compileMillis, runMillis)));
+        });
+    }
+
+    /**
+     * Same as run(), for a task instead of processes. Only the time and output limits hold for a task,
+     * callers check {@link ProcessSupervisor.Limits#allowInProcess} before choosing this over run().
+     */
+    public void runTask(Task task, Consumer<String> output, Consumer<Result> done) {
+        if (running) throw new IllegalStateException("A program is already running");
+        running = true;
+        stopRequested = false;
+        currentTask = task;
+        runner.execute(() -> {
+            long started = System.nanoTime();
+            Result result;
+            supervisor.begin(this::stop); // time and output only, the task runs in our own JVM
+            try {
+                Result ran = task.run(text -> {
+                    if (supervisor.output(text.length())) output.accept(text);
+                });
+                result = new Result(ran.exitCode(), ran.compileFailed(), stopRequested, elapsed(started), ran.error(),
+                        null, ran.profile());
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                result = new Result(-1, false, stopRequested, elapsed(started), stopRequested ? null : e);
+            } finally {
+                supervisor.end();
+                currentTask = null;
+                running = false;
+            }
+            done.accept(result.supervised(supervisor.exceeded(), result.profile())); // a task measures itself
+        });
+    }
+
+    private Result runSteps(List<Step> steps, Consumer<String> output, long started)
+            throws IOException, InterruptedException {
+        int exitCode = -1;
+        for (int i = 0; i < steps.size(); i++) {
+            if (stopRequested) return new Result(-1, false, true, elapsed(started), null);
+
+            long stepStarted = System.nanoTime();
+            Process process = steps.get(i).start();
+            current = process;
+            supervisor.watch(process, steps.get(i) instanceof PooledStep);
+            if (stopRequested) killTree(process); // stop() came between start() and current being set
+            process.getOutputStream().close(); // no console input: a read gets EOF instead of waiting forever (a worker's already is)
+
+            pump(process, output);
+            supervisor.sample(); // the output is closed, the process is about to exit
+            exitCode = process.waitFor();
+            boolean lastStep = i == steps.size() - 1;
+            if (lastStep) {
+                runMillis = elapsed(stepStarted);
+            } else {
+                compileMillis += elapsed(stepStarted);
+            }
+            if (stopRequested) return new Result(-1, false, true, elapsed(started), null);
+
+            if (!lastStep && exitCode != 0) {
+                return new Result(exitCode, true, false, elapsed(started), null);
+            }
+        }
+        return new Result(exitCode, false, false, elapsed(started), null);
+    }
+
+    // Chunks go out as soon as the process writes them, not when it exits
+    private void pump(Process process, Consumer<String> output) throws IOException {
+        try (Reader reader = new InputStreamReader(process.getInputStream(), Charset.defaultCharset())) {
+            char[] buffer = new char[CHUNK];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                if (supervisor.output(n)) output.accept(new String(buffer, 0, n));
+            }
+        }
+    }
+
+    /** Kills the running step with everything the run started. The run then ends with stopped = true. */
+    public void stop() {
+        stopRequested = true;
+        Process process = current;
+        if (process != null) killTree(process);
+        Task task = currentTask;
+        if (task != null) task.stop();
+        supervisor.reap(); // also what was orphaned on the way
+    }
+
+    private static void killTree(Process process) {
+        // Kill all children first, they would keep the output pipe open
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private static long elapsed(long started) {
+        return (System.nanoTime() - started) / 1_000_000;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.javafxnotepad;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compiled programs, kept across sessions so running unchanged code again skips the compiler.
+ *
+ * An entry is a directory named after a SHA-256 of everything that goes into the build: language,
+ * compiler version, flags, file name and source. A build compiles into a staging directory and is
+ * committed by renaming it to its key only if it succeeded, so an entry is always complete. Entries
+ * are evicted least recently used first (the entry's mtime is its last use) when the cache grows
+ * past its size cap.
+ */
+public class CompileCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompileCache.class);
+
+    private static final String STAGING_PREFIX = "staging-";
+    private static final long STALE_STAGING_MS = TimeUnit.HOURS.toMillis(1); // left behind by a crash
+
+    /** A build that is compiling into dir and becomes entry key once committed */
+    public record Build(Path dir, String key) {
+    }
+
+    private final Path root;
+    private final long maxBytes;
+    private final Map<String, String> compilerVersions = new ConcurrentHashMap<>();
+
+    public CompileCache(Path root, long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+    }
+
+    public static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".javafx-notepad", "build-cache");
+    }
+
+    /**
+     * First line of "compiler --version", once per session. A compiler upgrade must not reuse old
+     * builds. javac only knows -version.
+     */
+    public String compilerVersion(String compiler) {
+        return compilerVersions.computeIfAbsent(compiler, c -> {
+            String flag = c.equals("javac") ? "-version" : "--version";
+            try {
+                Process process = new ProcessBuilder(c, flag).redirectErrorStream(true).start();
+                String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                process.waitFor(10, TimeUnit.SECONDS);
+                return output.lines().findFirst().orElse("unknown").strip();
+            } catch (IOException e) {
+                return "unknown"; // not installed, the build itself will say so
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "unknown";
+            }
+        });
+    }
+
+    public static String key(String language, String compilerVersion, List<String> flags, String fileName, String source) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (String part : List.of(language, compilerVersion, String.join("\u0001", flags), fileName)) {
+                sha.update(part.getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) 0); // separator, so ("ab", "c") and ("a", "bc") differ
+            }
+            sha.update(source.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JDK has SHA-256
+        }
+    }
+
+    /** The entry's directory, or null if this code was never built (or was evicted) */
+    public Path lookup(String key) {
+        Path entry = root.resolve(key);
+        if (!Files.isDirectory(entry)) return null;
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis())); // LRU
+        } catch (IOException e) {
+            // still usable, just evicted a bit earlier
+        }
+        return entry;
+    }
+
+    /** A fresh directory for the compiler's output */
+    public Build begin(String key) throws IOException {
+        Files.createDirectories(root);
+        return new Build(Files.createTempDirectory(root, STAGING_PREFIX), key);
+    }
+
+    /** The build succeeded: it becomes the entry for its key. Then old entries are evicted if needed. */
+    public void commit(Build build) {
+        Path entry = root.resolve(build.key());
+        try {
+            Files.move(build.dir(), entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            discard(build); // another window built the same code meanwhile, keep what is there
+        }
+        evict();
+    }
+
+    public void discard(Build build) {
+        deleteTree(build.dir());
+    }
+
+    // Least recently used entries go first until the cache fits. Stale staging dirs go too.
+    private void evict() {
+        List<Path> entries = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root)) {
+            for (Path path : stream) {
+                if (!path.getFileName().toString().startsWith(STAGING_PREFIX)) {
+                    entries.add(path);
+                } else if (now - lastModified(path) > STALE_STAGING_MS) {
+                    deleteTree(path);
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+
+        long total = 0;
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path entry : entries) {
+            long size = sizeOf(entry);
+            sizes.put(entry, size);
+            total += size;
+        }
+        entries.sort(Comparator.comparingLong(CompileCache::lastModified));
+        for (Path entry : entries) {
+            if (total <= maxBytes) break;
+            deleteTree(entry);
+            total -= sizes.get(entry);
+            logger.debug("Build cache: evicted {}", entry.getFileName());
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOf(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteTree(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    logger.warn("Build cache: could not delete {}", path);
+                }
+            });
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.javafxnotepad;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+
+/**
+ * The text sent with a completion request: a bounded window around the caret instead of the whole
+ * document prefix, so request size (and the normalize/ghost scans on the answer) stay flat however
+ * large the file gets.
+ *
+ * The window is picked with the document's line index and only the chosen lines are copied out:
+ * - the enclosing function/class headers (nearest less-indented lines above that look like one)
+ * - up to {@value #LINES_BEFORE} lines before the caret, within the token budget
+ * - a few lines after the caret, sent as reference only
+ */
+public final class CompletionContext {
+
+    private static final int CHARS_PER_TOKEN = 4;                      // rough, good enough for a budget
+    private static final int TOKEN_BUDGET = 1024;
+    private static final int MAX_CHARS = TOKEN_BUDGET * CHARS_PER_TOKEN;
+    private static final int LINES_BEFORE = 60;
+    private static final int LINES_AFTER = 5;
+    private static final int MAX_HEADERS = 2;
+    private static final int HEADER_SCAN_LINES = 2000;                 // how far up to look for headers
+    private static final int MAX_LINE_CHARS = 300;                     // a minified line must not eat the budget
+
+    // def/class in Python, class/struct/namespace, or something like "int main(int argc) {" in C-like code
+    private static final Pattern HEADER = Pattern.compile(
+            "^\\s*(async\\s+def|def|class|struct|namespace|interface|enum|record)\\b.*"
+                    + "|^\\s*[\\w<>\\[\\],:*&\\s]+\\([^;]*\\)\\s*(const)?\\s*(throws [\\w.,\\s]+)?\\{?\\s*$");
+
+    /**
+     * prefix ends at the caret and is what the model completes; following is the code after the caret.
+     */
+    public record Window(String prefix, String following) {
+    }
+
+    private CompletionContext() {
+    }
+
+    public static Window extract(PieceTable doc, int caret) {
+        caret = Math.max(0, Math.min(caret, doc.length()));
+        int caretLine = doc.lineOf(caret);
+        int caretLineStart = doc.lineStart(caretLine);
+
+        // The caret line up to the caret always goes in (its end, if it is huge)
+        int budget = MAX_CHARS;
+        int currentStart = Math.max(caretLineStart, caret - budget);
+        budget -= caret - currentStart;
+
+        // Whole lines before it, nearest first, while they fit
+        int firstLine = caretLine;
+        while (firstLine > 0 && caretLine - firstLine < LINES_BEFORE) {
+            int line = firstLine - 1;
+            int length = Math.min(doc.lineEnd(line) - doc.lineStart(line), MAX_LINE_CHARS) + 1;
+            if (length > budget) break;
+            budget -= length;
+            firstLine = line;
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        for (String header : enclosingHeaders(doc, firstLine, caretLine, budget)) {
+            prefix.append(header).append('\n');
+        }
+        if (prefix.length() > 0) prefix.append("...\n");
+        for (int line = firstLine; line < caretLine; line++) {
+            appendLine(doc, line, prefix);
+            prefix.append('\n');
+        }
+        prefix.append(doc.getText(currentStart, caret));
+
+        // Rest of the caret line and a few lines after it
+        int lastLine = Math.min(doc.lineCount() - 1, caretLine + LINES_AFTER);
+        int followingEnd = Math.min(doc.lineEnd(lastLine), caret + MAX_CHARS / 4);
+        return new Window(prefix.toString(), doc.getText(caret, followingEnd));
+    }
+
+    /**
+     * Header lines above the window that enclose the caret, outermost first. Each one must be indented
+     * less than the previous, so sibling functions above the caret are skipped.
+     */
+    private static Deque<String> enclosingHeaders(PieceTable doc, int firstLine, int caretLine, int budget) {
+        Deque<String> headers = new ArrayDeque<>();
+        int indent = indentation(doc, caretLine);
+        // the window itself may already start inside a less indented block, start from its least indent
+        for (int line = firstLine; line < caretLine; line++) {
+            if (!isBlank(doc, line)) indent = Math.min(indent, indentation(doc, line));
+        }
+
+        int stop = Math.max(0, firstLine - HEADER_SCAN_LINES);
+        for (int line = firstLine - 1; line >= stop && indent > 0 && headers.size() < MAX_HEADERS; line--) {
+            if (isBlank(doc, line)) continue;
+            int lineIndent = indentation(doc, line);
+            if (lineIndent >= indent) continue;
+
+            String text = doc.getText(doc.lineStart(line), Math.min(doc.lineEnd(line), doc.lineStart(line) + MAX_LINE_CHARS));
+            if (HEADER.matcher(text).matches() && text.length() + 1 <= budget) {
+                headers.addFirst(text);
+                budget -= text.length() + 1;
+                indent = lineIndent;
+            }
+        }
+        return headers;
+    }
+
+    private static void appendLine(PieceTable doc, int line, StringBuilder out) {
+        int start = doc.lineStart(line);
+        out.append(doc.getText(start, Math.min(doc.lineEnd(line), start + MAX_LINE_CHARS)));
+    }
+
+    // tab counts as 4 columns
+    private static int indentation(PieceTable doc, int line) {
+        int columns = 0;
+        for (int i = doc.lineStart(line), end = doc.lineEnd(line); i < end; i++) {
+            char c = doc.charAt(i);
+            if (c == ' ') columns++;
+            else if (c == '\t') columns += 4;
+            else break;
+        }
+        return columns;
+    }
+
+    private static boolean isBlank(PieceTable doc, int line) {
+        for (int i = doc.lineStart(line), end = doc.lineEnd(line); i < end; i++) {
+            if (!Character.isWhitespace(doc.charAt(i))) return false;
+        }
+        return true;
+    }
+}
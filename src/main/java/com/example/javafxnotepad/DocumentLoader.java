@@ -0,0 +1,208 @@
+package com.example.javafxnotepad;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Streams a text file into the editor: bytes are read in large chunks and decoded with a CharsetDecoder,
+ * and every decoded chunk is handed over right away, so the first screen shows long before the whole
+ * file is read. The charset comes from the BOM or, without one, from sniffing the first chunk. The BOM
+ * itself is not part of the text; the caller keeps whether there was one, so a save can write it back.
+ *
+ * Line endings are normalized to '\n' (the editors work with '\n' only), like readLine() used to.
+ */
+public class DocumentLoader {
+
+    private static final int FIRST_CHUNK = 64 * 1024;    // small first read so the first screen is quick
+    private static final int CHUNK = 1024 * 1024;
+
+    private final Path path;
+    private volatile boolean cancelled = false;
+    private volatile long totalBytes = 1;
+    private volatile long bytesRead = 0;
+    private boolean pendingCr = false;
+
+    /** Charset and the number of BOM bytes to skip */
+    public record Detected(Charset charset, int bomLength) {
+    }
+
+    public DocumentLoader(Path path) {
+        this.path = path;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Fraction of the file read so far, 0..1 */
+    public double getProgress() {
+        return Math.min(1.0, (double) bytesRead / totalBytes);
+    }
+
+    /**
+     * Reads the whole file on the calling thread, handing decoded text to the sink chunk by chunk.
+     * Returns the detected charset and BOM, or null if the load was cancelled.
+     */
+    public Detected load(Consumer<String> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            totalBytes = Math.max(1, channel.size());
+
+            ByteBuffer bytes = ByteBuffer.allocate(CHUNK);
+            bytes.limit(FIRST_CHUNK);
+            fill(channel, bytes);
+            bytes.flip();
+
+            Detected detected = detectCharset(bytes);
+            bytes.position(detected.bomLength());
+            CharsetDecoder decoder = detected.charset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.allocate(CHUNK);
+
+            boolean eof = false;
+            while (!eof) {
+                CoderResult result = decoder.decode(bytes, chars, false);
+                emit(chars, sink);
+                if (result.isOverflow()) continue;   // char buffer was full, more bytes are waiting
+
+                if (cancelled) return null;
+                bytes.compact();
+                eof = fill(channel, bytes) < 0;
+                bytes.flip();
+            }
+            decoder.decode(bytes, chars, true);
+            decoder.flush(chars);
+            emit(chars, sink);
+            return detected;
+        }
+    }
+
+    /** Reads until the buffer is full or the file ends; returns -1 at end of file */
+    private int fill(FileChannel channel, ByteBuffer bytes) throws IOException {
+        int total = 0;
+        while (bytes.hasRemaining()) {
+            int n = channel.read(bytes);
+            if (n < 0) return total == 0 ? -1 : total;
+            total += n;
+            bytesRead += n;
+        }
+        return total;
+    }
+
+    private void emit(CharBuffer chars, Consumer<String> sink) {
+        chars.flip();
+        if (chars.hasRemaining()) {
+            sink.accept(normalizeLineEndings(chars));
+        }
+        chars.clear();
+    }
+
+    // "\r\n" and lone "\r" become "\n"; a '\r' at the end of one chunk may pair with a '\n' in the next
+    private String normalizeLineEndings(CharBuffer chars) {
+        StringBuilder sb = new StringBuilder(chars.remaining());
+        while (chars.hasRemaining()) {
+            char c = chars.get();
+            if (c == '\r') {
+                sb.append('\n');
+                pendingCr = true;
+                continue;
+            }
+            if (c != '\n' || !pendingCr) {
+                sb.append(c);
+            }
+            pendingCr = false;
+        }
+        return sb.toString();
+    }
+
+    /** detectCharset() on the first chunk of the file */
+    public static Detected detect(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(FIRST_CHUNK);
+            while (head.hasRemaining() && channel.read(head) >= 0) {
+                // the whole first chunk, a short read would sniff less
+            }
+            head.flip();
+            return detectCharset(head);
+        }
+    }
+
+    /** Guesses the charset from a BOM, from zero-byte patterns (UTF-16) or by checking for valid UTF-8 */
+    public static Detected detectCharset(ByteBuffer head) {
+        int p = head.position();
+        int n = head.remaining();
+        if (n >= 3 && (head.get(p) & 0xFF) == 0xEF && (head.get(p + 1) & 0xFF) == 0xBB && (head.get(p + 2) & 0xFF) == 0xBF) {
+            return new Detected(StandardCharsets.UTF_8, 3);
+        }
+        if (n >= 2 && (head.get(p) & 0xFF) == 0xFE && (head.get(p + 1) & 0xFF) == 0xFF) {
+            return new Detected(StandardCharsets.UTF_16BE, 2);
+        }
+        if (n >= 2 && (head.get(p) & 0xFF) == 0xFF && (head.get(p + 1) & 0xFF) == 0xFE) {
+            return new Detected(StandardCharsets.UTF_16LE, 2);
+        }
+
+        // ASCII text in UTF-16 has a zero in every other byte
+        int evenZeros = 0, oddZeros = 0;
+        for (int i = 0; i < n; i++) {
+            if (head.get(p + i) == 0) {
+                if ((i & 1) == 0) evenZeros++;
+                else oddZeros++;
+            }
+        }
+        if (n >= 4 && oddZeros > n / 4 && evenZeros < n / 40) {
+            return new Detected(StandardCharsets.UTF_16LE, 0);
+        }
+        if (n >= 4 && evenZeros > n / 4 && oddZeros < n / 40) {
+            return new Detected(StandardCharsets.UTF_16BE, 0);
+        }
+
+        if (isValidUtf8(head)) {
+            return new Detected(StandardCharsets.UTF_8, 0);
+        }
+        // Not UTF-8: assume a single-byte Windows/Latin charset, every byte decodes to something
+        Charset fallback = Charset.isSupported("windows-1252") ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1;
+        return new Detected(fallback, 0);
+    }
+
+    /** A multi-byte sequence cut off at the end of the sample still counts as valid */
+    private static boolean isValidUtf8(ByteBuffer head) {
+        int end = head.limit();
+        int i = head.position();
+        while (i < end) {
+            int b = head.get(i) & 0xFF;
+            int continuation;
+            if (b < 0x80) {
+                i++;
+                continue;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                continuation = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                continuation = 2;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                continuation = 3;
+            } else {
+                return false;
+            }
+            for (int k = 1; k <= continuation; k++) {
+                if (i + k >= end) return true;
+                if ((head.get(i + k) & 0xC0) != 0x80) return false;
+            }
+            i += continuation + 1;
+        }
+        return true;
+    }
+}
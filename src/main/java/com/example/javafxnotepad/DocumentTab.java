@@ -0,0 +1,188 @@
+package com.example.javafxnotepad;
+
+import javafx.scene.control.Tab;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One open document of the tab strip: its text, the file and charset it belongs to, whether it has unsaved
+ * changes and its journal. There is only one pair of editors, they show the selected tab's document; the
+ * other tabs keep theirs here, with the caret and scroll position to come back to.
+ *
+ * A tab that is not shown can be unloaded: its text is written to a spill file in the session dir as raw
+ * UTF-16 chars, and when the tab is selected again the file is mapped and becomes the original buffer of a
+ * new PieceTable. The text is then read from the page cache, not the heap, and a tab that goes idle again
+ * without being edited is unloaded by just dropping the table.
+ *
+ * FX thread only, except for the spill write which works on a snapshot.
+ */
+public class DocumentTab {
+
+    private static final int CHUNK = 64 * 1024;
+    private static final AtomicInteger SPILL_NUMBER = new AtomicInteger();
+
+    // one thread for all tabs, spills are rare and only ever big sequential writes
+    private static final ExecutorService SPILLER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "tab-spill");
+        t.setDaemon(true);
+        return t;
+    });
+
+    final Tab tab;                // its header in the tab strip, the editors move into it while it's selected
+    PieceTable document;          // null while unloaded
+    File file;                    // null for an untitled document
+    Charset charset = StandardCharsets.UTF_8;
+    boolean bom = false;          // the file started with a byte order mark, a save writes it back
+    boolean dirty = false;
+    EditJournal journal;          // unsaved edits, null while the document matches the file
+    LargeFileView largeFileView;  // non-null for a large file shown read-only
+    DocumentLoader loader;        // non-null while the file is being streamed in
+    int pendingSaves = 0;         // saves still writing a snapshot of this document
+    FileSearch.Hit pendingHit;    // a Find in Files hit to show once the file is loaded
+    final UndoHistory undoHistory = new UndoHistory(); // holds its own text, so it survives unloading
+
+    // where the user was, restored when the tab is selected again
+    int anchor = 0;
+    int caret = 0;
+    double scrollTop = 0;
+    long lastShown = System.nanoTime();
+
+    private Path spillFile;           // the text as of the last unload
+    private PieceTable mappedText;    // the document as it was mapped back from spillFile
+    private PieceTable spilling;      // the text being written by spill(), null if none
+
+    public DocumentTab(Tab tab, PieceTable document) {
+        this.tab = tab;
+        this.document = document;
+        tab.setUserData(this);
+    }
+
+    public boolean isLoaded() {
+        return document != null;
+    }
+
+    /** Nothing typed, nothing loaded: a fresh Untitled that Open may reuse */
+    public boolean isPristine() {
+        return file == null && !dirty && loader == null && largeFileView == null && document != null && document.length() == 0;
+    }
+
+    /** Rough heap held by the text: 2 bytes a char, nothing if it is unloaded or still the mapped spill file */
+    public long heapBytes() {
+        if (document == null || largeFileView != null) return 0;
+        if (mappedText != null && document.isUnchangedSince(mappedText)) return 0;
+        return 2L * document.length();
+    }
+
+    /** Loading, saving, read-only or already unloading tabs stay as they are */
+    public boolean canUnload() {
+        return document != null && loader == null && pendingSaves == 0 && largeFileView == null && spilling == null;
+    }
+
+    /**
+     * Writes the text to a new spill file in dir on the spill thread; call {@link #finishUnload} with the
+     * result on the FX thread. Completes with null if the mapped spill file still holds the text.
+     */
+    public CompletableFuture<Path> spill(Path dir) {
+        if (mappedText != null && document.isUnchangedSince(mappedText)) {
+            spilling = mappedText;
+            return CompletableFuture.completedFuture(null);
+        }
+        PieceTable snapshot = document.snapshot();
+        spilling = snapshot;
+        Path target = dir.resolve("tab-" + SPILL_NUMBER.incrementAndGet() + ".chars");
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                writeChars(snapshot, target);
+                return target;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, SPILLER);
+    }
+
+    /**
+     * Drops the text, unless drop is false (the tab was selected meanwhile) or it was edited since the spill
+     * began. spilled is what {@link #spill} completed with, null if it failed. Returns true if unloaded.
+     */
+    public boolean finishUnload(Path spilled, boolean drop) {
+        PieceTable snapshot = spilling;
+        spilling = null;
+        if (!drop || document == null || !document.isUnchangedSince(snapshot)) {
+            deleteQuietly(spilled);
+            return false;
+        }
+        if (spilled != null) {
+            deleteQuietly(spillFile);
+            spillFile = spilled;
+            mappedText = null;
+        } else if (snapshot != mappedText) {
+            return false; // the write failed
+        }
+        document = null;
+        return true;
+    }
+
+    /** Maps the spill file back in. The mapping is released once the table is garbage collected. */
+    public void reload() throws IOException {
+        if (document != null) return;
+        try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+            CharBuffer chars = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asCharBuffer();
+            document = new PieceTable(chars);
+            mappedText = document.snapshot();
+        }
+    }
+
+    /** The tab was closed */
+    public void dispose() {
+        if (loader != null) loader.cancel();
+        if (largeFileView != null) largeFileView.close();
+        if (journal != null) journal.discard();
+        document = null;
+        mappedText = null;
+        spilling = null;
+        deleteQuietly(spillFile);
+        spillFile = null;
+    }
+
+    // Chars as they are, no encoder: a lone surrogate comes back exactly as it was
+    private static void writeChars(PieceTable text, Path target) throws IOException {
+        char[] chars = new char[CHUNK];
+        ByteBuffer bytes = ByteBuffer.allocate(2 * CHUNK);
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (int start = 0, length = text.length(); start < length; start += CHUNK) {
+                int count = Math.min(CHUNK, length - start);
+                text.getChars(start, start + count, chars, 0);
+                bytes.clear();
+                bytes.asCharBuffer().put(chars, 0, count); // big-endian, like the mapped view reads it back
+                bytes.limit(2 * count);
+                while (bytes.hasRemaining()) channel.write(bytes);
+            }
+        } catch (IOException e) {
+            deleteQuietly(target);
+            throw e;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            // still mapped on Windows, the session dir goes on exit anyway
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package com.example.javafxnotepad;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the edits made to one document since it was last saved, so unsaved work
+ * survives a crash or a kill.
+ *
+ * The journal starts with a base (either "the file on disk, with this size and timestamp" or the full text)
+ * followed by one record per edit. Edits are queued in memory and written by a background thread at most
+ * once per {@value #FLUSH_INTERVAL_MS} ms, merged where possible (a burst of typing becomes one insert),
+ * so there is no per-keystroke I/O. Once the edit records pass {@value #COMPACT_AFTER_BYTES} bytes the
+ * journal is rewritten with the current text as the new base.
+ *
+ * Every record carries its length and a CRC32; replay stops at the first torn or corrupt record.
+ * A live journal is kept locked, so only journals left behind by a dead process are offered for recovery.
+ */
+public class EditJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(EditJournal.class);
+
+    private static final int MAGIC = 0x4E504A31; // "NPJ1"
+    private static final byte HEADER = 1;
+    private static final byte TEXT = 2;
+    private static final byte REPLACE = 3;
+
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final long COMPACT_AFTER_BYTES = 4L << 20;
+    private static final int TEXT_CHUNK = 64 * 1024;
+    private static final String SUFFIX = ".journal";
+
+    // one writer thread shared by all journals, it only ever does a little batched I/O
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "edit-journal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Path file;
+    private final List<Object> pending = new ArrayList<>();   // Base and Replace entries, guarded by this
+    private boolean flushScheduled = false;
+    private volatile long bytesSinceBase = 0;
+    private volatile boolean closed = false;
+
+    // only touched on the writer thread
+    private FileChannel channel;
+    private FileLock lock;
+
+    private record Base(String path, String charset, boolean fromFile, long size, long lastModified, PieceTable text) {
+    }
+
+    private record Replace(int start, int end, String text) {
+    }
+
+    /** What replay() rebuilt: the document and the file it belongs to (null for an untitled one) */
+    public record Recovered(File file, Charset charset, PieceTable document) {
+    }
+
+    private EditJournal(Path file, Base base) {
+        this.file = file;
+        enqueue(base);
+    }
+
+    public static Path defaultDirectory() {
+        return Path.of(System.getProperty("user.home"), ".javafx-notepad", "journal");
+    }
+
+    /** Journal whose base is the given file exactly as it is on disk right now */
+    public static EditJournal startFromFile(Path dir, File source, Charset charset) {
+        Base base = new Base(source.getAbsolutePath(), charset.name(), true, source.length(), source.lastModified(), null);
+        return new EditJournal(newJournalFile(dir), base);
+    }
+
+    /** Journal whose base is the given text (an untitled document, or one that differs from its file) */
+    public static EditJournal startFromText(Path dir, File source, Charset charset, PieceTable snapshot) {
+        return new EditJournal(newJournalFile(dir), textBase(source, charset, snapshot));
+    }
+
+    private static Path newJournalFile(Path dir) {
+        return dir.resolve("doc-" + UUID.randomUUID() + SUFFIX);
+    }
+
+    private static Base textBase(File source, Charset charset, PieceTable snapshot) {
+        String path = source != null ? source.getAbsolutePath() : "";
+        return new Base(path, charset.name(), false, 0, 0, snapshot);
+    }
+
+    /** Called on the FX thread for every edit, [start, end) in the document before the edit */
+    public void recordReplace(int start, int end, String text) {
+        enqueue(new Replace(start, end, text));
+    }
+
+    public boolean wantsCompaction() {
+        return bytesSinceBase > COMPACT_AFTER_BYTES;
+    }
+
+    /** Starts over with the given text as base; edits queued before it are dropped, they are part of the snapshot */
+    public void compact(File source, Charset charset, PieceTable snapshot) {
+        bytesSinceBase = 0;
+        enqueue(textBase(source, charset, snapshot));
+    }
+
+    /** The document was saved or thrown away: nothing left to recover */
+    public void discard() {
+        closed = true;
+        WRITER.execute(() -> {
+            closeChannel();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warn("Could not delete journal {}", file, e);
+            }
+        });
+    }
+
+    /** Writes whatever is queued and waits for it, used by the shutdown hook */
+    public void flushNow() {
+        try {
+            WRITER.submit(this::flush).get(2, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.warn("Journal flush on shutdown failed", e);
+        }
+    }
+
+    /** Waits for queued journal work (writes, deletes) of all journals, used by the shutdown hook */
+    public static void awaitPendingWrites() {
+        try {
+            WRITER.submit(() -> { }).get(2, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            logger.warn("Journal writer did not finish on shutdown", e);
+        }
+    }
+
+    private void enqueue(Object entry) {
+        synchronized (this) {
+            if (closed) return;
+            if (entry instanceof Base) {
+                pending.clear();   // a new base already contains everything queued before it
+            }
+            pending.add(entry);
+            if (flushScheduled) return;
+            flushScheduled = true;
+        }
+        WRITER.schedule(this::flush, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        List<Object> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            flushScheduled = false;
+        }
+        if (closed || batch.isEmpty()) return;
+
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            Replace merged = null;
+            for (Object entry : batch) {
+                if (entry instanceof Base base) {
+                    writeBase(base);
+                } else if (entry instanceof Replace op) {
+                    Replace combined = merged == null ? null : merge(merged, op);
+                    if (combined != null) {
+                        merged = combined;
+                    } else {
+                        if (merged != null) writeRecord(records, replacePayload(merged));
+                        merged = op;
+                    }
+                }
+            }
+            if (merged != null) writeRecord(records, replacePayload(merged));
+
+            if (records.size() > 0 && channel != null) {
+                ByteBuffer bytes = ByteBuffer.wrap(records.toByteArray());
+                while (bytes.hasRemaining()) channel.write(bytes);
+                channel.force(false);   // one fsync per batch, not per keystroke
+                bytesSinceBase += records.size();
+            }
+        } catch (IOException e) {
+            // journaling is a safety net, never bother the user with it
+            logger.error("Edit journal write failed, journaling stopped for {}", file, e);
+            closed = true;
+            closeChannel();
+        }
+    }
+
+    /** Typing forwards, backspacing and forward-deleting each collapse into a single record */
+    private static Replace merge(Replace a, Replace b) {
+        boolean aInsert = a.start == a.end;
+        boolean bInsert = b.start == b.end;
+        if (aInsert && bInsert && b.start == a.start + a.text.length()) {
+            return new Replace(a.start, a.start, a.text + b.text);
+        }
+        boolean aDelete = a.text.isEmpty();
+        boolean bDelete = b.text.isEmpty();
+        if (aDelete && bDelete && b.end == a.start) {
+            return new Replace(b.start, a.end, "");
+        }
+        if (aDelete && bDelete && b.start == a.start) {
+            return new Replace(a.start, a.end + (b.end - b.start), "");
+        }
+        return null;
+    }
+
+    // base rewrites go to a temp file first so a crash mid-compaction keeps the old journal
+    private void writeBase(Base base) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            new DataOutputStream(head).writeInt(MAGIC);
+            writeRecord(head, headerPayload(base));
+            writeFully(out, head.toByteArray());
+
+            if (base.text() != null) {
+                PieceTable text = base.text();
+                char[] chars = new char[TEXT_CHUNK];
+                for (int pos = 0, length = text.length(); pos < length; ) {
+                    int end = Math.min(pos + TEXT_CHUNK, length);
+                    // never cut between the two halves of a surrogate pair
+                    if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) end--;
+                    text.getChars(pos, end, chars, 0);
+                    ByteArrayOutputStream record = new ByteArrayOutputStream();
+                    writeRecord(record, textPayload(new String(chars, 0, end - pos)));
+                    writeFully(out, record.toByteArray());
+                    pos = end;
+                }
+            }
+            out.force(true);
+        }
+
+        closeChannel();
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        lock = channel.tryLock();
+        bytesSinceBase = 0;
+    }
+
+    private void closeChannel() {
+        try {
+            if (lock != null) lock.release();
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {
+        }
+        lock = null;
+        channel = null;
+    }
+
+    private static void writeFully(FileChannel out, byte[] data) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(data);
+        while (bytes.hasRemaining()) out.write(bytes);
+    }
+
+    // ---------------------------------------------------------------- record format
+
+    // [int payload length][int crc32 of payload][payload]
+    private static void writeRecord(ByteArrayOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(payload.length);
+        data.writeInt((int) crc.getValue());
+        data.write(payload);
+    }
+
+    private static byte[] headerPayload(Base base) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(HEADER);
+        writeString(out, base.path());
+        writeString(out, base.charset());
+        out.writeBoolean(base.fromFile());
+        out.writeLong(base.size());
+        out.writeLong(base.lastModified());
+        return bytes.toByteArray();
+    }
+
+    private static byte[] textPayload(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TEXT);
+        writeString(out, text);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] replacePayload(Replace op) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REPLACE);
+        out.writeInt(op.start());
+        out.writeInt(op.end());
+        writeString(out, op.text());
+        return bytes.toByteArray();
+    }
+
+    // writeUTF is capped at 64 KB and UTF-8 cannot hold a lone surrogate, so raw UTF-16 chars: replay is exact
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        out.writeInt(text.length());
+        out.writeChars(text);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available() / 2) throw new EOFException("Bad string length " + length);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) chars[i] = in.readChar();
+        return new String(chars);
+    }
+
+    /** Next record's payload, or null at the end of the journal or at a torn/corrupt record */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            int expected = in.readInt();
+            if (length < 0 || length > (1 << 28)) return null;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == expected ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------- recovery
+
+    /** Journals not locked by a running editor, newest first */
+    public static List<Path> findOrphans(Path dir) {
+        List<Path> orphans = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return orphans;
+        try (var files = Files.list(dir)) {
+            for (Path journal : files.filter(p -> p.toString().endsWith(SUFFIX)).toList()) {
+                try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE);
+                     FileLock probe = channel.tryLock()) {
+                    if (probe != null) orphans.add(journal);
+                } catch (OverlappingFileLockException | IOException ignored) {
+                    // held by this or another running editor
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not list journals in {}", dir, e);
+        }
+        orphans.sort(Comparator.comparingLong((Path p) -> p.toFile().lastModified()).reversed());
+        return orphans;
+    }
+
+    /** Rebuilds the document: base text (or the file from disk), then every intact edit record in order */
+    public static Recovered replay(Path journal) throws IOException {
+        try (InputStream stream = Files.newInputStream(journal);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not an edit journal: " + journal);
+
+            byte[] headerBytes = readRecord(in);
+            if (headerBytes == null || headerBytes[0] != HEADER) throw new IOException("Journal has no header: " + journal);
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes, 1, headerBytes.length - 1));
+            String path = readString(header);
+            Charset charset = Charset.forName(readString(header));
+            boolean fromFile = header.readBoolean();
+            long size = header.readLong();
+            long lastModified = header.readLong();
+            File source = path.isEmpty() ? null : new File(path);
+
+            StringBuilder baseText = new StringBuilder();
+            if (fromFile) {
+                if (source == null || source.length() != size || source.lastModified() != lastModified) {
+                    throw new IOException(path + " changed on disk after the unsaved edits were made");
+                }
+                charset = new DocumentLoader(source.toPath()).load(baseText::append).charset();
+            }
+
+            PieceTable document = null;
+            byte[] payload;
+            while ((payload = readRecord(in)) != null) {
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length - 1));
+                if (payload[0] == TEXT && document == null) {
+                    baseText.append(readString(record));
+                } else if (payload[0] == REPLACE) {
+                    if (document == null) document = new PieceTable(baseText.toString());
+                    int start = record.readInt();
+                    int end = record.readInt();
+                    String text = readString(record);
+                    if (start < 0 || end < start || end > document.length()) break;
+                    document.replace(start, end, text);
+                }
+            }
+            if (document == null) document = new PieceTable(baseText.toString());
+            return new Recovered(source, charset, document);
+        }
+    }
+
+    public static void delete(Path journal) {
+        try {
+            Files.deleteIfExists(journal);
+        } catch (IOException e) {
+            logger.warn("Could not delete journal {}", journal, e);
+        }
+    }
+}
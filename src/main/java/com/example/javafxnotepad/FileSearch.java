@@ -0,0 +1,283 @@
+package com.example.javafxnotepad;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Find in Files: one thread walks the tree and hands every file to a pool with a thread per core. Small
+ * files are read into a buffer the worker keeps, big ones are memory-mapped, a window of at most
+ * {@value #MAP_WINDOW} bytes at a time (one mapping can't pass 2 GB); either way the bytes are
+ * split into lines and each line is decoded as UTF-8 into a reused CharBuffer that the matcher runs on, so
+ * no String is made except for the lines that match. Lines end where DocumentLoader ends them ("\n",
+ * "\r\n" or a lone '\r') and a UTF-8 BOM is skipped, so a hit's line and column are the editor's. Memory stays the same however big the tree is:
+ * a few buffers per worker, a bounded queue of paths and at most {@value #DEFAULT_MAX_HITS} hits
+ * (-Dnotepad.findInFiles.maxHits).
+ *
+ * Hidden directories (.git and the like), node_modules and files with a NUL byte near the start
+ * (binaries, UTF-16 text) are skipped. Lines longer than {@value #MAX_LINE} bytes are matched in pieces.
+ */
+public class FileSearch {
+
+    private static final int DEFAULT_MAX_HITS = 10_000;
+    private static final int MAX_HITS = Integer.getInteger("notepad.findInFiles.maxHits", DEFAULT_MAX_HITS);
+    private static final int THREADS = Integer.getInteger("notepad.findInFiles.threads", Runtime.getRuntime().availableProcessors());
+    private static final int MAP_THRESHOLD = 256 * 1024;   // smaller files are read, the mmap call costs more than it saves
+    private static final int MAP_WINDOW = 1 << 30;
+    private static final int MAX_LINE = 1 << 20;
+    private static final int BINARY_PROBE = 8 * 1024;
+    private static final int PREVIEW_BEFORE = 40;
+    private static final int PREVIEW_LENGTH = 200;
+
+    /** One match: line and column are 0-based, column and length count chars */
+    public record Hit(Path file, int line, int column, int length, String preview) {
+    }
+
+    /** How it went; cancelled is also set when the search stopped at the hit limit */
+    public record Summary(int files, int filesWithHits, int hits, long bytes, long millis, boolean capped, boolean cancelled) {
+    }
+
+    private final Path root;
+    private final Pattern pattern;
+    private final Consumer<List<Hit>> onHits;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicInteger filesWithHits = new AtomicInteger();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile boolean capped = false;
+
+    /** onHits gets the hits of one file at a time, on a worker thread */
+    public FileSearch(Path root, Pattern pattern, Consumer<List<Hit>> onHits) {
+        this.root = root;
+        this.pattern = pattern;
+        this.onHits = onHits;
+    }
+
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    /** Files searched so far */
+    public int filesSearched() {
+        return files.get();
+    }
+
+    /** Starts the walk on its own thread; completes once every file has been searched or the search was cancelled */
+    public CompletableFuture<Summary> start() {
+        CompletableFuture<Summary> done = new CompletableFuture<>();
+        Thread walker = new Thread(() -> {
+            long start = System.nanoTime();
+            // a full queue makes the walker search the file itself, so the walk never runs far ahead
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(4 * THREADS), r -> {
+                Thread t = new Thread(r, "find-in-files");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+            ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (cancelled.get()) return FileVisitResult.TERMINATE;
+                        String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                        boolean skip = !dir.equals(root) && (name.startsWith(".") || name.equals("node_modules"));
+                        return skip ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (cancelled.get()) return FileVisitResult.TERMINATE;
+                        if (attrs.isRegularFile() && attrs.size() > 0) {
+                            long size = attrs.size();
+                            pool.execute(() -> {
+                                if (!cancelled.get()) workers.get().search(file, size);
+                            });
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        return FileVisitResult.CONTINUE; // unreadable, skip it
+                    }
+                });
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                done.complete(new Summary(files.get(), filesWithHits.get(), Math.min(hits.get(), MAX_HITS), bytes.get(),
+                        (System.nanoTime() - start) / 1_000_000, capped, cancelled.get()));
+            } catch (IOException | RuntimeException e) {
+                cancelled.set(true);
+                pool.shutdownNow();
+                done.completeExceptionally(e);
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                done.completeExceptionally(e);
+            }
+        }, "find-in-files-walk");
+        walker.setDaemon(true);
+        walker.start();
+        return done;
+    }
+
+    /** The buffers of one pool thread, kept from file to file */
+    private class Worker {
+        private final ByteBuffer small = ByteBuffer.allocate(MAP_THRESHOLD);
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private CharBuffer chars = CharBuffer.allocate(8 * 1024);
+        private final Matcher matcher = pattern.matcher("");
+        private final List<Hit> found = new ArrayList<>();
+        private int line;   // where scanLines is in the file, a line may go on in the next window
+        private int column;
+
+        void search(Path file, long size) {
+            line = 0;
+            column = 0;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (size <= MAP_THRESHOLD) {
+                    small.clear();
+                    while (small.hasRemaining() && channel.read(small) >= 0) {
+                        // read until full or end of file
+                    }
+                    small.flip();
+                    files.incrementAndGet();
+                    bytes.addAndGet(small.limit());
+                    if (!isBinary(small)) scanLines(file, small, true, true);
+                } else {
+                    files.incrementAndGet();
+                    bytes.addAndGet(size);
+                    // each window starts at a line, the unfinished one at the end of a window is scanned with the next
+                    for (long pos = 0; pos < size && !cancelled.get(); ) {
+                        long windowSize = Math.min(MAP_WINDOW, size - pos);
+                        ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, windowSize);
+                        if (pos == 0 && isBinary(window)) break;
+                        pos += scanLines(file, window, pos == 0, pos + windowSize == size);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // gone, unreadable or truncated while mapped: not worth stopping the search for
+            }
+            if (!found.isEmpty()) {
+                filesWithHits.incrementAndGet();
+                onHits.accept(List.copyOf(found));
+                found.clear();
+            }
+        }
+
+        /**
+         * Scans the lines of buffer, the start of the file if first, its end if last. Returns how many bytes
+         * were scanned: up to the line that the window cuts off, which the next window starts with. A window
+         * without any line break is scanned whole, the line then goes on in the next one.
+         */
+        private int scanLines(Path file, ByteBuffer buffer, boolean first, boolean last) {
+            int length = buffer.limit();
+            int start = first && hasUtf8Bom(buffer) ? 3 : 0;
+            while (start < length && !cancelled.get()) {
+                int end = start;
+                while (end < length && buffer.get(end) != '\n' && buffer.get(end) != '\r') end++;
+                // a line cut off by the window, or a "\r" whose "\n" may be in the next one
+                if (!last && (end >= length - 1)) {
+                    if (start > 0) return start;
+                    int cut = end; // nothing but one long line: scan what there is
+                    if (end == length) {
+                        cut = length - 4; // the next byte decides whether a sequence ends at length, and it isn't mapped
+                        while ((buffer.get(cut) & 0xC0) == 0x80) cut--; // not inside a UTF-8 sequence
+                    }
+                    scanLine(file, buffer, 0, cut);
+                    return cut;
+                }
+                scanLine(file, buffer, start, end);
+                line++;
+                column = 0;
+                start = end + 1;
+                if (end + 1 < length && buffer.get(end) == '\r' && buffer.get(end + 1) == '\n') start++; // "\r\n" is one break
+            }
+            return length;
+        }
+
+        // Decodes [start, end) of the current line and records its matches; a very long line goes piece by piece
+        private void scanLine(Path file, ByteBuffer buffer, int start, int end) {
+            while (start < end) {
+                int pieceEnd = end;
+                if (end - start > MAX_LINE) {
+                    pieceEnd = start + MAX_LINE;
+                    while (pieceEnd > start + 1 && (buffer.get(pieceEnd) & 0xC0) == 0x80) pieceEnd--; // not inside a UTF-8 sequence
+                }
+                decode(buffer, start, pieceEnd);
+                matcher.reset(chars);
+                while (matcher.find()) {
+                    if (matcher.end() == matcher.start()) continue; // an empty match is no hit
+                    if (hits.incrementAndGet() > MAX_HITS) {
+                        capped = true;
+                        cancelled.set(true);
+                        return;
+                    }
+                    found.add(new Hit(file, line, column + matcher.start(), matcher.end() - matcher.start(),
+                            preview(matcher.start())));
+                }
+                column += chars.remaining();
+                start = pieceEnd;
+            }
+        }
+
+        private void decode(ByteBuffer buffer, int start, int end) {
+            if (chars.capacity() < end - start) {
+                chars = CharBuffer.allocate(end - start); // UTF-8 never has more chars than bytes
+            }
+            buffer.limit(end).position(start);
+            chars.clear();
+            decoder.reset();
+            decoder.decode(buffer, chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            buffer.clear(); // the absolute reads of scanLines go up to its own length, not the limit
+        }
+
+        // The text around the match, trimmed so a minified file doesn't put a megabyte line in the list
+        private String preview(int matchStart) {
+            int from = Math.max(0, matchStart - PREVIEW_BEFORE);
+            int to = Math.min(chars.remaining(), from + PREVIEW_LENGTH);
+            String text = chars.subSequence(from, to).toString().strip();
+            return (from > 0 ? "..." : "") + text + (to < chars.remaining() ? "..." : "");
+        }
+    }
+
+    private static boolean hasUtf8Bom(ByteBuffer buffer) {
+        return buffer.limit() >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB
+                && (buffer.get(2) & 0xFF) == 0xBF;
+    }
+
+    private static boolean isBinary(ByteBuffer buffer) {
+        int probe = Math.min(buffer.limit(), BINARY_PROBE);
+        for (int i = 0; i < probe; i++) {
+            if (buffer.get(i) == 0) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.javafxnotepad;
+
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The find/replace bar above the editor. Matches come from a {@link MatchIndex}, so Next and Previous
+ * are a binary search, the count is live, and a big document is searched in the background while the
+ * user keeps typing. Replace All is worked out on a snapshot in the background too and applied as a
+ * single edit: one change to the editor, one journal record and one undo step.
+ */
+public class FindBar extends VBox {
+
+    /** The editor the bar works on; document() is null when the shown document can't be searched */
+    public interface Target {
+        PieceTable document();
+
+        int selectionStart();
+
+        int selectionEnd();
+
+        void select(int start, int end);
+
+        /** Replaces [start, end) of the document as one user edit */
+        void replace(int start, int end, String text);
+    }
+
+    private final TextField findField = new TextField();
+    private final TextField replaceField = new TextField();
+    private final CheckBox regexBox = new CheckBox("Regex");
+    private final CheckBox matchCaseBox = new CheckBox("Match case");
+    private final Label countLabel = new Label();
+    private final HBox replaceRow;
+
+    private Target target;
+    private MatchIndex index;          // null while there is nothing to search for
+    private String error;              // the regex doesn't compile
+    private boolean replacing = false; // a Replace All is being worked out
+
+    public FindBar() {
+        super(4);
+        getStyleClass().add("find-bar");
+        setPadding(new Insets(2, 0, 2, 0));
+
+        findField.setPromptText("Find");
+        replaceField.setPromptText("Replace with");
+        HBox.setHgrow(findField, Priority.ALWAYS);
+        HBox.setHgrow(replaceField, Priority.ALWAYS);
+        countLabel.setMinWidth(140);
+
+        Button previous = new Button("Previous");
+        previous.setOnAction(e -> findPrevious());
+        Button next = new Button("Next");
+        next.setOnAction(e -> findNext());
+        Button close = new Button("✕");
+        close.setOnAction(e -> hide());
+        HBox findRow = new HBox(6, findField, regexBox, matchCaseBox, previous, next, countLabel, close);
+        findRow.setAlignment(Pos.CENTER_LEFT);
+
+        Button replace = new Button("Replace");
+        replace.setOnAction(e -> replaceCurrent());
+        Button replaceAll = new Button("Replace All");
+        replaceAll.setOnAction(e -> replaceAll());
+        replaceRow = new HBox(6, replaceField, replace, replaceAll);
+        replaceRow.setAlignment(Pos.CENTER_LEFT);
+        getChildren().addAll(findRow, replaceRow);
+
+        findField.textProperty().addListener((obs, old, text) -> restart());
+        regexBox.selectedProperty().addListener((obs, old, on) -> restart());
+        matchCaseBox.selectedProperty().addListener((obs, old, on) -> restart());
+
+        // Enter finds the next match, Shift+Enter the previous one, Escape closes the bar
+        setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ESCAPE) {
+                hide();
+                event.consume();
+            } else if (event.getCode() == KeyCode.ENTER) {
+                if (event.getTarget() == replaceField) {
+                    replaceCurrent();
+                } else if (event.isShiftDown()) {
+                    findPrevious();
+                } else {
+                    findNext();
+                }
+                event.consume();
+            }
+        });
+        hide();
+    }
+
+    public void setTarget(Target target) {
+        this.target = target;
+    }
+
+    /** Shows the bar, with the replace row if withReplace, and puts the focus in the find field */
+    public void show(boolean withReplace) {
+        setVisible(true);
+        setManaged(true);
+        replaceRow.setVisible(withReplace);
+        replaceRow.setManaged(withReplace);
+        findField.requestFocus();
+        findField.selectAll();
+        if (index == null) restart();
+    }
+
+    public void hide() {
+        setVisible(false);
+        setManaged(false);
+        closeIndex();
+    }
+
+    public boolean isShowing() {
+        return isVisible();
+    }
+
+    /** The document was edited, see {@link MatchIndex#edited} */
+    public void edited(int start, int removedEnd, int insertedLength) {
+        if (index != null && target.document() == index.document()) {
+            index.edited(start, removedEnd, insertedLength);
+            updateCount();
+        }
+    }
+
+    /** The editor shows another document, or the same one read again; only a new document starts a new search */
+    public void documentChanged() {
+        if (!isShowing()) return;
+        PieceTable document = target.document();
+        if (index == null || document != index.document()) restart();
+    }
+
+    public void findNext() {
+        if (index == null || index.count() == 0) return;
+        int start = target.selectionStart();
+        int end = target.selectionEnd();
+        int match = index.firstAtOrAfter(end);
+        if (match >= 0 && start == end && index.indexOf(start, end) == match) {
+            match = match + 1 < index.count() ? match + 1 : -1; // the empty match at the caret is the current one
+        }
+        if (match < 0) {
+            if (!index.isComplete()) return; // the rest isn't searched yet
+            match = 0; // wrap around
+        }
+        selectMatch(match);
+    }
+
+    public void findPrevious() {
+        if (index == null || index.count() == 0) return;
+        int match = index.lastBefore(target.selectionStart());
+        if (match < 0) {
+            if (!index.isComplete()) return;
+            match = index.count() - 1;
+        }
+        selectMatch(match);
+    }
+
+    private void selectMatch(int match) {
+        target.select(index.start(match), index.end(match));
+        updateCount();
+    }
+
+    /** Replaces the selection if it is a match, then goes on to the next one */
+    private void replaceCurrent() {
+        if (index == null || replacing) return;
+        int start = target.selectionStart();
+        int end = target.selectionEnd();
+        String text = MatchIndex.replacementFor(target.document(), index.pattern(), start, end,
+                replaceField.getText(), !regexBox.isSelected());
+        if (text != null) {
+            target.replace(start, end, text);
+            target.select(start + text.length(), start + text.length());
+        }
+        findNext();
+    }
+
+    private void replaceAll() {
+        if (index == null || replacing || index.count() == 0) return;
+        PieceTable document = target.document();
+        PieceTable snapshot = document.snapshot();
+        replacing = true;
+        countLabel.setText("Replacing...");
+        MatchIndex.replaceAll(snapshot, index.pattern(), replaceField.getText(), !regexBox.isSelected())
+                .whenComplete((replacement, failure) -> Platform.runLater(() -> {
+                    replacing = false;
+                    if (failure != null) {
+                        countLabel.setText("Replace failed: " + failure.getMessage());
+                        return;
+                    }
+                    if (replacement == null) {
+                        updateCount();
+                        return;
+                    }
+                    // typed into meanwhile: the offsets are stale, don't guess
+                    if (target.document() != document || !document.isUnchangedSince(snapshot)) {
+                        countLabel.setText("Text changed, Replace All again");
+                        return;
+                    }
+                    target.replace(replacement.start(), replacement.end(), replacement.text());
+                    countLabel.setText("Replaced " + replacement.count());
+                }));
+    }
+
+    // The query or the document changed: drop the old index and search again
+    private void restart() {
+        closeIndex();
+        error = null;
+        PieceTable document = target == null ? null : target.document();
+        String text = findField.getText();
+        if (!isShowing() || document == null || text.isEmpty()) {
+            updateCount();
+            return;
+        }
+        MatchIndex.Query query = new MatchIndex.Query(text, regexBox.isSelected(), matchCaseBox.isSelected());
+        try {
+            index = new MatchIndex(document, query, this::updateCount);
+        } catch (PatternSyntaxException e) {
+            error = e.getDescription();
+        }
+        updateCount();
+    }
+
+    private void closeIndex() {
+        if (index != null) index.close();
+        index = null;
+    }
+
+    private void updateCount() {
+        if (replacing) return;
+        if (error != null) {
+            countLabel.setText("Invalid regex: " + error);
+        } else if (target != null && target.document() == null) {
+            countLabel.setText("Not available here");
+        } else if (index == null) {
+            countLabel.setText("");
+        } else if (!index.isComplete()) {
+            countLabel.setText(String.format("Searching... %d (%.0f%%)", index.count(), 100 * index.progress()));
+        } else if (index.count() == 0) {
+            countLabel.setText("No matches");
+        } else {
+            String total = index.count() + (index.isCapped() ? "+" : "");
+            int match = index.indexOf(target.selectionStart(), target.selectionEnd());
+            countLabel.setText(match >= 0 ? (match + 1) + " of " + total : total + " matches");
+        }
+    }
+}
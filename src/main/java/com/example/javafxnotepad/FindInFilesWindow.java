@@ -0,0 +1,186 @@
+package com.example.javafxnotepad;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The Find in Files window: a folder, a query and the hits of a {@link FileSearch} in a ListView, which
+ * only makes cells for the rows on screen. Hits arrive from the search threads into a queue and are
+ * moved into the list at most once per pulse. Clicking a hit (or Enter) hands it to the opener.
+ * FX thread only, apart from the queue.
+ */
+public class FindInFilesWindow {
+
+    private final Stage stage = new Stage();
+    private final TextField folderField = new TextField();
+    private final TextField queryField = new TextField();
+    private final CheckBox regexBox = new CheckBox("Regex");
+    private final CheckBox matchCaseBox = new CheckBox("Match case");
+    private final Button searchButton = new Button("Search");
+    private final Label status = new Label();
+    private final ObservableList<FileSearch.Hit> hits = FXCollections.observableArrayList();
+    private final ListView<FileSearch.Hit> list = new ListView<>(hits);
+
+    private Queue<FileSearch.Hit> arrived = new ConcurrentLinkedQueue<>(); // a new one per search, a stopped one can't add to the next
+    private final AtomicBoolean syncQueued = new AtomicBoolean();
+    private FileSearch search; // the one running, null if none
+    private File root;
+    private Path searchedRoot; // where the hits in the list are from
+
+    public FindInFilesWindow(Window owner, Consumer<FileSearch.Hit> opener) {
+        folderField.setEditable(false);
+        folderField.setPromptText("Folder to search");
+        HBox.setHgrow(folderField, Priority.ALWAYS);
+        Button browse = new Button("Folder...");
+        browse.setOnAction(e -> chooseFolder());
+        HBox folderRow = new HBox(6, folderField, browse);
+        folderRow.setAlignment(Pos.CENTER_LEFT);
+
+        queryField.setPromptText("Find");
+        queryField.setOnAction(e -> startOrStop());
+        HBox.setHgrow(queryField, Priority.ALWAYS);
+        searchButton.setOnAction(e -> startOrStop());
+        HBox queryRow = new HBox(6, queryField, regexBox, matchCaseBox, searchButton);
+        queryRow.setAlignment(Pos.CENTER_LEFT);
+
+        VBox top = new VBox(6, folderRow, queryRow, status);
+        top.setPadding(new Insets(5));
+
+        list.setFixedCellSize(22); // lets the ListView skip measuring cells
+        list.setPlaceholder(new Label(""));
+        list.setCellFactory(view -> new ListCell<>() {
+            @Override
+            protected void updateItem(FileSearch.Hit hit, boolean empty) {
+                super.updateItem(hit, empty);
+                setText(empty || hit == null ? null : describe(hit));
+            }
+        });
+        list.setOnMouseClicked(event -> {
+            FileSearch.Hit hit = list.getSelectionModel().getSelectedItem();
+            if (event.getButton() == MouseButton.PRIMARY && hit != null) opener.accept(hit);
+        });
+        list.setOnKeyPressed(event -> {
+            FileSearch.Hit hit = list.getSelectionModel().getSelectedItem();
+            if (event.getCode() == KeyCode.ENTER && hit != null) opener.accept(hit);
+        });
+
+        BorderPane rootPane = new BorderPane(list);
+        rootPane.setTop(top);
+        Scene scene = new Scene(rootPane, 760, 520);
+        if (owner.getScene() != null) scene.getStylesheets().setAll(owner.getScene().getStylesheets()); // dark mode
+        stage.setScene(scene);
+        stage.setTitle("Find in Files");
+        stage.initOwner(owner);
+        stage.setOnHidden(e -> stop());
+    }
+
+    /** Shows the window, asking for a folder the first time */
+    public void show() {
+        stage.show();
+        stage.toFront();
+        queryField.requestFocus();
+        if (root == null) chooseFolder();
+    }
+
+    private void chooseFolder() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Folder to search");
+        if (root != null && root.isDirectory()) chooser.setInitialDirectory(root);
+        File folder = chooser.showDialog(stage);
+        if (folder == null) return;
+        root = folder;
+        folderField.setText(folder.getAbsolutePath());
+    }
+
+    private void startOrStop() {
+        if (search != null) {
+            stop();
+            return;
+        }
+        if (root == null || queryField.getText().isEmpty()) return;
+        Pattern pattern;
+        try {
+            int flags = (regexBox.isSelected() ? 0 : Pattern.LITERAL)
+                    | (matchCaseBox.isSelected() ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            pattern = Pattern.compile(queryField.getText(), flags);
+        } catch (PatternSyntaxException e) {
+            status.setText("Invalid regex: " + e.getDescription());
+            return;
+        }
+
+        hits.clear();
+        Queue<FileSearch.Hit> queue = new ConcurrentLinkedQueue<>();
+        arrived = queue;
+        searchedRoot = root.toPath();
+        FileSearch started = new FileSearch(searchedRoot, pattern, found -> {
+            queue.addAll(found);
+            if (syncQueued.compareAndSet(false, true)) Platform.runLater(this::sync);
+        });
+        search = started;
+        searchButton.setText("Stop");
+        status.setText("Searching...");
+        started.start().whenComplete((summary, failure) -> Platform.runLater(() -> {
+            if (search != started) return; // stopped and another one started
+            search = null;
+            searchButton.setText("Search");
+            sync();
+            if (failure != null) {
+                status.setText("Search failed: " + failure.getMessage());
+                return;
+            }
+            String ending = summary.capped() ? ", stopped at the hit limit" : summary.cancelled() ? ", stopped" : "";
+            status.setText(String.format("%d hits in %d of %d files, %.1f MB in %.2f s%s", summary.hits(),
+                    summary.filesWithHits(), summary.files(), summary.bytes() / 1e6, summary.millis() / 1000.0, ending));
+        }));
+    }
+
+    private void stop() {
+        if (search == null) return;
+        search.cancel();
+    }
+
+    // Moves what came in since the last pulse into the list
+    private void sync() {
+        syncQueued.set(false);
+        if (search == null && arrived.isEmpty()) return;
+        List<FileSearch.Hit> batch = new ArrayList<>();
+        for (FileSearch.Hit hit; (hit = arrived.poll()) != null; ) batch.add(hit);
+        if (!batch.isEmpty()) hits.addAll(batch);
+        if (search != null) status.setText("Searching... " + hits.size() + " hits, " + search.filesSearched() + " files");
+    }
+
+    private String describe(FileSearch.Hit hit) {
+        String path = searchedRoot.relativize(hit.file()).toString();
+        return path + ":" + (hit.line() + 1) + ":" + (hit.column() + 1) + "  " + hit.preview();
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.javafxnotepad;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one OkHttpClient of the app. Every OkHttpClient has its own connection pool and dispatcher
+ * threads, so a client per service (or worse, per request) means every completion pays DNS, TCP
+ * and TLS again. Derive variants with {@code shared().newBuilder()}, that keeps the pool.
+ */
+public final class HttpClients {
+
+    private static final OkHttpClient SHARED = new OkHttpClient.Builder()
+            // HTTP/2 multiplexes a cancelled request and its replacement on one connection
+            .protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            // idle connections survive pauses in typing
+            .connectionPool(new ConnectionPool(4, 5, TimeUnit.MINUTES))
+            // pings keep HTTP/2 connections from being dropped silently by proxies and NATs
+            .pingInterval(30, TimeUnit.SECONDS)
+            .connectTimeout(5, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .writeTimeout(10, TimeUnit.SECONDS)
+            .retryOnConnectionFailure(true)
+            .build();
+
+    private HttpClients() {
+    }
+
+    public static OkHttpClient shared() {
+        return SHARED;
+    }
+}
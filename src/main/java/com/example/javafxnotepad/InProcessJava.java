@@ -0,0 +1,413 @@
+package com.example.javafxnotepad;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Runs Java code inside the editor's JVM: javax.tools compiles it into memory, a throwaway class
+ * loader loads it, and main runs on a thread of its own ThreadGroup. That skips the two cold JVM
+ * starts of javac + java, so a small program prints within tens of milliseconds once the compiler
+ * is warm.
+ *
+ * System.out/err/in are replaced once by streams that look at the calling thread: threads of a user
+ * program write to its output pane and read EOF, everything else goes where it always went.
+ *
+ * Limits compared to a separate JVM: the working directory is the editor's, System.exit would end
+ * the editor (such code runs as a process instead, see {@link #canRun}), there is no memory limit (an
+ * OutOfMemoryError is the editor's), and Stop can only interrupt. A program that ignores the interrupt
+ * is given up on after {@value #STOP_GRACE_MS} ms: the run ends as stopped, the threads keep spinning at
+ * the lowest priority until the editor exits. That's why this is opt-in, -Dnotepad.java.inProcess=true,
+ * and why no further code runs in-process while such a program is still alive: it goes to a process
+ * instead, so runaways don't pile up one per Execute.
+ *
+ * Only threads the program starts itself belong to it. Work it hands to the JVM's shared pools
+ * (ForkJoinPool.commonPool, parallel streams, CompletableFuture.supplyAsync) runs on the editor's
+ * threads: that output goes to the editor's stdout, the run doesn't wait for it and Stop doesn't reach it.
+ * The program's threads are not daemons, the editor always leaves through System.exit anyway.
+ */
+public class InProcessJava {
+
+    private static final List<String> OPTIONS = List.of("-proc:none"); // no annotation processor discovery
+    private static final Pattern EXITS = Pattern.compile("\\bSystem\\s*\\.\\s*exit\\b|\\.\\s*halt\\s*\\(|\\bRuntime\\b");
+    private static final long STOP_GRACE_MS = 1000;
+    private static final long JOIN_SLICE_MS = 50;
+    // exercises what typical snippets use (generics, lambdas, string concat), "class X {}" leaves most of javac cold
+    private static final String WARM_UP_SOURCE = "import java.util.*;\n"
+            + "public class Warm { public static void main(String[] args) {\n"
+            + "  List<Integer> list = new ArrayList<>(List.of(3, 1, 2)); Collections.sort(list);\n"
+            + "  Map<String, Integer> map = new HashMap<>(); list.forEach(i -> map.merge(\"k\" + i, i, Integer::sum));\n"
+            + "  for (int i = 0; i < list.size(); i++) System.out.println(\"item \" + i + \": \" + list.get(i) + map);\n"
+            + "} }";
+
+    private static final InputStream NO_INPUT = InputStream.nullInputStream();
+    private static final PrintStream ORIGINAL_OUT = System.out;
+    private static final PrintStream ORIGINAL_ERR = System.err;
+    private static final InputStream ORIGINAL_IN = System.in;
+    private static boolean streamsInstalled = false;
+
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler(); // null on a runtime without jdk.compiler
+    private final CompileCache cache;
+    private boolean warmedUp = false;
+    private final Set<ThreadGroup> abandoned = ConcurrentHashMap.newKeySet(); // programs that ignored Stop
+
+    public InProcessJava(CompileCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * False means: run it as a process. No compiler in this runtime, the code may end the JVM, or an
+     * earlier program that ignored Stop still runs.
+     */
+    public boolean canRun(String source) {
+        if (compiler == null || EXITS.matcher(source).find()) return false;
+        abandoned.removeIf(group -> group.activeCount() == 0);
+        if (!abandoned.isEmpty()) {
+            System.out.println("A stopped program still runs in the editor, running this one as a process");
+            return false;
+        }
+        return true;
+    }
+
+    /** The first compile loads and JITs javac, ~1 s. Doing it early keeps that off the first Execute. */
+    public synchronized void warmUp() {
+        if (compiler == null || warmedUp) return;
+        warmedUp = true;
+        Thread warm = new Thread(() -> {
+            long started = System.nanoTime();
+            for (int i = 0; i < 3; i++) {
+                compile("Warm", WARM_UP_SOURCE, new StringBuilder());
+            }
+            System.out.printf("In-process javac warm in %.0f ms%n", (System.nanoTime() - started) / 1e6);
+        }, "javac-warm-up");
+        warm.setDaemon(true);
+        warm.setPriority(Thread.MIN_PRIORITY);
+        warm.start();
+    }
+
+    /** A run for CodeRunner.runTask */
+    public CodeRunner.Task task(String className, String source) {
+        return new Run(className, source);
+    }
+
+    // Class name -> bytecode, null if it didn't compile (errors are in diagnostics then)
+    private Map<String, byte[]> compile(String className, String source, StringBuilder diagnostics) {
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> output = new HashMap<>();
+        try (StandardJavaFileManager standard = compiler.getStandardFileManager(collector, Locale.getDefault(), StandardCharsets.UTF_8);
+             JavaFileManager memory = new ForwardingJavaFileManager<>(standard) {
+                 @Override
+                 public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                                                            FileObject sibling) {
+                     return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                         @Override
+                         public OutputStream openOutputStream() {
+                             return output.computeIfAbsent(name, n -> new ByteArrayOutputStream());
+                         }
+                     };
+                 }
+             }) {
+            JavaFileObject unit = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+            boolean ok = compiler.getTask(null, memory, collector, OPTIONS, null, List.of(unit)).call();
+            for (Diagnostic<? extends JavaFileObject> d : collector.getDiagnostics()) {
+                // same shape as javac's own output
+                diagnostics.append(className).append(".java:").append(d.getLineNumber()).append(": ")
+                        .append(d.getKind().toString().toLowerCase()).append(": ")
+                        .append(d.getMessage(Locale.getDefault())).append('\n');
+            }
+            if (!ok) return null;
+        } catch (IOException e) {
+            diagnostics.append(e).append('\n');
+            return null;
+        }
+
+        Map<String, byte[]> classes = new HashMap<>();
+        output.forEach((name, bytes) -> classes.put(name, bytes.toByteArray()));
+        return classes;
+    }
+
+    private class Run implements CodeRunner.Task {
+        private final String className;
+        private final String source;
+        private final ThreadGroup group;
+        private volatile boolean stopped = false;
+        private volatile long giveUpAt; // nanoTime, set by stop()
+
+        Run(String className, String source) {
+            this.className = className;
+            this.source = source;
+            this.group = new ThreadGroup("user-program");
+        }
+
+        @Override
+        public CodeRunner.Result run(Consumer<String> output) throws Exception {
+            long compileStarted = System.nanoTime();
+            Map<String, byte[]> classes = compiledClasses(output);
+            long compileMillis = (System.nanoTime() - compileStarted) / 1_000_000;
+            if (classes == null) return new CodeRunner.Result(1, true, false, 0, null);
+
+            installStreams();
+            UserStreams.register(group, output);
+            try {
+                ClassLoader loader = new MemoryClassLoader(classes);
+                Method main = loader.loadClass(className).getMethod("main", String[].class);
+                if (!Modifier.isStatic(main.getModifiers())) {
+                    output.accept("error: main must be static in class " + className + "\n");
+                    return new CodeRunner.Result(1, false, false, 0, null);
+                }
+                main.setAccessible(true); // the class itself need not be public, java doesn't ask that either
+
+                int[] exitCode = {0};
+                long[] cpuNanos = {-1};
+                Thread mainThread = new Thread(group, () -> {
+                    try {
+                        main.invoke(null, (Object) new String[0]);
+                    } catch (InvocationTargetException e) {
+                        exitCode[0] = 1;
+                        // like the java launcher: the user's exception, not the reflection around it
+                        Throwable cause = e.getCause();
+                        cause.setStackTrace(userFrames(cause.getStackTrace()));
+                        System.err.print("Exception in thread \"main\" ");
+                        cause.printStackTrace();
+                    } catch (IllegalAccessException e) {
+                        exitCode[0] = 1;
+                        System.err.println("error: " + e.getMessage());
+                    } finally {
+                        cpuNanos[0] = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+                    }
+                }, "main");
+                // not a daemon: threads the program starts inherit that, and those the JVM would wait for
+                mainThread.setDaemon(false);
+                mainThread.setContextClassLoader(loader);
+                if (stopped) return new CodeRunner.Result(-1, false, true, 0, null); // stopped while compiling
+                long runStarted = System.nanoTime();
+                mainThread.start();
+                // the JVM would wait for the program's non-daemon threads too
+                if (!await(mainThread) || !awaitOtherThreads()) {
+                    abandon();
+                    return new CodeRunner.Result(-1, false, true, 0, null);
+                }
+                System.out.flush();
+                // CPU of the main thread only; memory can't be told apart from the editor's in a shared heap
+                CodeRunner.Profile profile = new CodeRunner.Profile(compileMillis, (System.nanoTime() - runStarted) / 1_000_000,
+                        cpuNanos[0] < 0 ? -1 : cpuNanos[0] / 1_000_000, -1);
+                return new CodeRunner.Result(exitCode[0], false, false, 0, null, null, profile);
+            } finally {
+                UserStreams.unregister(group);
+            }
+        }
+
+        // From the build cache when this code ran before, otherwise compiled and put into it
+        private Map<String, byte[]> compiledClasses(Consumer<String> output) throws IOException {
+            String key = CompileCache.key("Java", "javax.tools " + Runtime.version(), OPTIONS, className + ".java", source);
+            Path cached = cache.lookup(key);
+            if (cached != null) {
+                Map<String, byte[]> classes = readClasses(cached);
+                if (!classes.isEmpty()) return classes;
+            }
+
+            StringBuilder diagnostics = new StringBuilder();
+            Map<String, byte[]> classes = compile(className, source, diagnostics);
+            if (!diagnostics.isEmpty()) output.accept(diagnostics.toString());
+            if (classes == null) return null;
+
+            CompileCache.Build build = cache.begin(key);
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                Files.write(build.dir().resolve(entry.getKey() + ".class"), entry.getValue());
+            }
+            cache.commit(build);
+            return classes;
+        }
+
+        private boolean awaitOtherThreads() throws InterruptedException {
+            while (true) {
+                Thread[] threads = new Thread[group.activeCount() + 8]; // enumerate drops what doesn't fit
+                int n = group.enumerate(threads);
+                Thread waitFor = null;
+                for (int i = 0; i < n; i++) {
+                    if (!threads[i].isDaemon() && threads[i].isAlive()) waitFor = threads[i];
+                }
+                if (waitFor == null) return true;
+                if (!await(waitFor)) return false;
+            }
+        }
+
+        // Joins in slices so a Stop is seen; false once the grace after Stop is over and the thread still runs
+        private boolean await(Thread thread) throws InterruptedException {
+            while (thread.isAlive()) {
+                if (stopped && System.nanoTime() - giveUpAt > 0) return false;
+                thread.join(JOIN_SLICE_MS);
+            }
+            return true;
+        }
+
+        /**
+         * Threads can't be killed, only interrupted. A program that ignores that keeps running, at the
+         * lowest priority and without output; run() stops waiting for it after the grace period, so the
+         * runner is free for the next run and reports this one as stopped.
+         */
+        private void abandon() {
+            System.out.println("User program did not stop on interrupt, leaving it at lowest priority");
+            group.setMaxPriority(Thread.MIN_PRIORITY);
+            Thread[] threads = new Thread[group.activeCount() + 8];
+            int n = group.enumerate(threads);
+            for (int i = 0; i < n; i++) threads[i].setPriority(Thread.MIN_PRIORITY); // the group's max only caps new threads
+            UserStreams.unregister(group);
+            abandoned.add(group);
+        }
+
+        @Override
+        public void stop() {
+            giveUpAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_GRACE_MS);
+            stopped = true;
+            group.interrupt();
+        }
+    }
+
+    // Cut the stack trace where the program's frames end and our Method.invoke begins
+    private static StackTraceElement[] userFrames(StackTraceElement[] frames) {
+        for (int i = 0; i < frames.length; i++) {
+            String className = frames[i].getClassName();
+            if (className.startsWith("jdk.internal.reflect.") || className.equals("java.lang.reflect.Method")) {
+                return Arrays.copyOf(frames, i);
+            }
+        }
+        return frames;
+    }
+
+    private static Map<String, byte[]> readClasses(Path dir) throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".class")) {
+                    classes.put(name.substring(0, name.length() - ".class".length()), Files.readAllBytes(file));
+                }
+            }
+        }
+        return classes;
+    }
+
+    /** Sees the platform classes only, not the editor's; dropped with the run */
+    private static class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        MemoryClassLoader(Map<String, byte[]> classes) {
+            super("user-program", ClassLoader.getPlatformClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static synchronized void installStreams() {
+        if (streamsInstalled) return;
+        System.setOut(new PrintStream(new UserStreams(ORIGINAL_OUT), true, StandardCharsets.UTF_8));
+        System.setErr(new PrintStream(new UserStreams(ORIGINAL_ERR), true, StandardCharsets.UTF_8));
+        System.setIn(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return stream().read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return stream().read(b, off, len);
+            }
+
+            private InputStream stream() {
+                return UserStreams.sinkFor(Thread.currentThread()) != null ? NO_INPUT : ORIGINAL_IN;
+            }
+        });
+        streamsInstalled = true;
+    }
+
+    /** Output of a thread that belongs to a running user program goes to that program's sink */
+    private static class UserStreams extends OutputStream {
+        private static final Map<ThreadGroup, Consumer<String>> SINKS = new ConcurrentHashMap<>();
+        private final PrintStream original;
+
+        UserStreams(PrintStream original) {
+            this.original = original;
+        }
+
+        static void register(ThreadGroup group, Consumer<String> sink) {
+            SINKS.put(group, sink);
+        }
+
+        static void unregister(ThreadGroup group) {
+            SINKS.remove(group);
+        }
+
+        static Consumer<String> sinkFor(Thread thread) {
+            if (SINKS.isEmpty()) return null;
+            for (ThreadGroup g = thread.getThreadGroup(); g != null; g = g.getParent()) {
+                Consumer<String> sink = SINKS.get(g);
+                if (sink != null) return sink;
+            }
+            return null;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        // PrintStream encodes a whole print() at once, so a write never splits a character
+        @Override
+        public void write(byte[] b, int off, int len) {
+            Consumer<String> sink = sinkFor(Thread.currentThread());
+            if (sink != null) {
+                sink.accept(new String(b, off, len, StandardCharsets.UTF_8));
+            } else {
+                original.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+            original.flush();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.javafxnotepad;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only viewer for a {@link MappedTextFile}. The ListView is virtualized, so it only asks for the
+ * lines that are on screen and only those get decoded. Line indexing and searching run on a background
+ * thread, the list simply grows while the index is being built.
+ */
+public class LargeFileView extends BorderPane {
+
+    private static final int LINE_CACHE_SIZE = 512;
+
+    private final MappedTextFile file;
+    private final LineList lines;
+    private final ListView<String> listView;
+    private final Label statusLabel = new Label();
+    private final TextField gotoField = new TextField();
+    private final TextField findField = new TextField();
+
+    private volatile boolean closed = false;
+    private volatile Thread searchThread;
+    private long lastMatch = -1;
+
+    public LargeFileView(MappedTextFile file) {
+        this.file = file;
+        this.lines = new LineList();
+        this.listView = new ListView<>(lines);
+
+        listView.setFixedCellSize(20);   // fixed height keeps the VirtualFlow from measuring cells
+        listView.getStyleClass().add("large-file-view");
+        setCenter(listView);
+
+        gotoField.setPromptText("Go to line");
+        gotoField.setPrefColumnCount(8);
+        gotoField.setOnAction(e -> goToLine());
+
+        findField.setPromptText("Find (case-sensitive)"); // raw bytes, see MappedTextFile.find
+        findField.setPrefColumnCount(18);
+        findField.setOnAction(e -> findNext());
+        findField.textProperty().addListener((obs, oldText, newText) -> lastMatch = -1);
+        Button findButton = new Button("Find Next");
+        findButton.setOnAction(e -> findNext());
+
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        HBox bar = new HBox(8, new Label("Read-only"), gotoField, findField, findButton, spacer, statusLabel);
+        bar.setAlignment(Pos.CENTER_LEFT);
+        bar.setPadding(new Insets(0, 0, 5, 0));
+        setTop(bar);
+
+        startIndexing();
+    }
+
+    /** Stops background work; the mapping itself is released once the view is garbage collected */
+    public void close() {
+        closed = true;
+        Thread search = searchThread;
+        if (search != null) search.interrupt();
+    }
+
+    private void startIndexing() {
+        Thread indexer = new Thread(() -> {
+            long start = System.nanoTime();
+            file.indexLines(count -> Platform.runLater(() -> {
+                lines.refreshSize();
+                statusLabel.setText(String.format("%,d lines%s", count, file.isIndexed() ? "" : " (indexing...)"));
+            }), () -> closed);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            // after the last progress update, runLater keeps the order
+            Platform.runLater(() -> {
+                if (file.isIndexed()) statusLabel.setText(String.format("%,d lines, indexed in %,d ms", file.lineCount(), millis));
+            });
+        }, "large-file-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    private void goToLine() {
+        try {
+            int line = Integer.parseInt(gotoField.getText().trim()) - 1;
+            if (line < 0 || line >= lines.size()) {
+                statusLabel.setText("Line out of range");
+                return;
+            }
+            showLine(line);
+        } catch (NumberFormatException e) {
+            statusLabel.setText("Not a line number");
+        }
+    }
+
+    /** Scrolls to the 0-based line and selects it, or the last line indexed so far */
+    public void showLine(int line) {
+        line = Math.min(line, lines.size() - 1);
+        if (line < 0) return;
+        listView.scrollTo(Math.max(0, line - 3));
+        listView.getSelectionModel().select(line);
+        listView.requestFocus();
+    }
+
+    /** Case-sensitive byte search over the mapping, continues after the previous match */
+    private void findNext() {
+        String query = findField.getText();
+        if (query.isEmpty() || searchThread != null) return;
+
+        long from = lastMatch + 1;
+        statusLabel.setText("Searching...");
+        Thread search = new Thread(() -> {
+            long match = file.find(query, from, () -> closed || Thread.currentThread().isInterrupted());
+            int line = match >= 0 ? file.lineOf(match) : -1;
+            Platform.runLater(() -> {
+                searchThread = null;
+                if (closed) return;
+                if (match < 0) {
+                    statusLabel.setText(from > 0 ? "No more matches (case-sensitive)" : "Not found (case-sensitive)");
+                    lastMatch = -1;
+                    return;
+                }
+                lastMatch = match;
+                lines.refreshSize();
+                if (line >= lines.size()) {
+                    statusLabel.setText("Match on line " + (line + 1) + ", still indexing up to there");
+                    return;
+                }
+                statusLabel.setText("Match on line " + (line + 1));
+                showLine(line);
+            });
+        }, "large-file-search");
+        search.setDaemon(true);
+        searchThread = search;
+        search.start();
+    }
+
+    /**
+     * List "view" of the file's lines: get() decodes on demand, so the ListView only ever
+     * pulls the handful of lines it is drawing. A small LRU cache absorbs repeated layout passes.
+     */
+    private class LineList extends ObservableListBase<String> {
+        private int size = file.lineCount();
+        private final Map<Integer, String> cache = new LinkedHashMap<>(LINE_CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > LINE_CACHE_SIZE;
+            }
+        };
+
+        @Override
+        public String get(int index) {
+            return cache.computeIfAbsent(index, file::line);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /** Picks up lines found by the indexer since the last call, the count only ever grows */
+        void refreshSize() {
+            int newSize = file.lineCount();
+            if (newSize <= size) return;
+            int oldSize = size;
+            size = newSize;
+            beginChange();
+            nextAdd(oldSize, newSize);
+            endChange();
+        }
+    }
+}
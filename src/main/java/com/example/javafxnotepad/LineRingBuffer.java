@@ -0,0 +1,150 @@
+package com.example.javafxnotepad;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The last lines of a program's output, in a fixed amount of memory. Lines go into a circular array;
+ * when it holds maxLines lines or maxChars chars the oldest ones are dropped and counted. Every line
+ * gets a sequence number, so a reader can ask for just the lines added since it last looked.
+ *
+ * Optionally everything, dropped lines included, is also written to a spill file.
+ * Thread-safe: the code runner appends while the FX thread reads.
+ */
+public class LineRingBuffer {
+
+    private static final int MAX_LINE_CHARS = 4096; // longer lines are broken up, one line must not fill the buffer
+
+    /** Lines [firstSeq, nextSeq) are still in the buffer, lines holds those from the asked seq on */
+    public record Slice(long firstSeq, long nextSeq, List<String> lines, String partial, long dropped, Path spillFile) {
+    }
+
+    private final int maxLines;
+    private final long maxChars;
+
+    private String[] ring = new String[1024]; // grows up to maxLines
+    private int head = 0;        // index of the oldest line
+    private int count = 0;
+    private long chars = 0;
+    private long firstSeq = 0;   // sequence number of ring[head]
+    private long dropped = 0;
+    private final StringBuilder partial = new StringBuilder(); // text after the last newline
+
+    private Writer spill;
+    private Path spillFile;
+
+    public LineRingBuffer(int maxLines, long maxChars) {
+        this.maxLines = maxLines;
+        this.maxChars = maxChars;
+    }
+
+    public synchronized void append(CharSequence text) {
+        if (spill != null) {
+            try {
+                spill.append(text);
+            } catch (IOException e) {
+                System.out.println("Output spill file failed, going on without it: " + e.getMessage());
+                closeSpill();
+            }
+        }
+
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                partial.append(text, start, i);
+                pushPartial();
+                start = i + 1;
+            } else if (partial.length() + (i - start) >= MAX_LINE_CHARS) {
+                partial.append(text, start, i);
+                pushPartial();
+                start = i;
+            }
+        }
+        partial.append(text, start, text.length());
+    }
+
+    private void pushPartial() {
+        int length = partial.length();
+        if (length > 0 && partial.charAt(length - 1) == '\r') length--; // Windows line ends
+        String line = partial.substring(0, length);
+        partial.setLength(0);
+
+        while (count > 0 && (count >= maxLines || chars + line.length() > maxChars)) {
+            chars -= ring[head].length();
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            count--;
+            firstSeq++;
+            dropped++;
+        }
+        if (count == ring.length) grow();
+        ring[(head + count) % ring.length] = line;
+        count++;
+        chars += line.length();
+    }
+
+    private void grow() {
+        String[] bigger = new String[Math.min(maxLines, ring.length * 2)];
+        for (int i = 0; i < count; i++) {
+            bigger[i] = ring[(head + i) % ring.length];
+        }
+        ring = bigger;
+        head = 0;
+    }
+
+    /** The lines from seq on (or from the oldest one still here), the unfinished last line and the counters */
+    public synchronized Slice since(long seq) {
+        long from = Math.max(seq, firstSeq);
+        long nextSeq = firstSeq + count;
+        List<String> lines = new ArrayList<>((int) Math.max(0, nextSeq - from));
+        for (long s = from; s < nextSeq; s++) {
+            lines.add(ring[(int) ((head + (s - firstSeq)) % ring.length)]);
+        }
+        return new Slice(firstSeq, nextSeq, lines, partial.toString(), dropped, spillFile);
+    }
+
+    /** Everything still in the buffer as one string */
+    public synchronized String text() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append(ring[(head + i) % ring.length]).append('\n');
+        }
+        return out.append(partial).toString();
+    }
+
+    /** Empties the buffer and starts counting from 0 again. Closes the spill file. */
+    public synchronized void clear() {
+        closeSpill();
+        ring = new String[1024];
+        head = 0;
+        count = 0;
+        chars = 0;
+        firstSeq = 0;
+        dropped = 0;
+        partial.setLength(0);
+        spillFile = null;
+    }
+
+    /** From now on also write all output to file, until clear() or closeSpill() */
+    public synchronized void spillTo(Path file) throws IOException {
+        closeSpill();
+        spill = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        spillFile = file;
+    }
+
+    public synchronized void closeSpill() {
+        if (spill == null) return;
+        try {
+            spill.close();
+        } catch (IOException e) {
+            System.out.println("Could not close the output spill file: " + e.getMessage());
+        }
+        spill = null;
+    }
+}
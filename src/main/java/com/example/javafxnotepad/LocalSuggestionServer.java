@@ -0,0 +1,205 @@
+package com.example.javafxnotepad;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A stand-in for an OpenAI-compatible /v1/chat/completions endpoint, for working on the suggestion
+ * pipeline offline and without an API key. It answers instantly (or after local.delay.ms) with the
+ * input plus a canned continuation picked from the end of the last line. With "stream": true it sends
+ * only the continuation, as server-sent events a few chars at a time.
+ *
+ * Runs in-process with provider=local, or standalone:
+ * java ... com.example.javafxnotepad.LocalSuggestionServer [port] [delayMs]
+ */
+public final class LocalSuggestionServer {
+
+    private static final String PATH = "/v1/chat/completions";
+    private static final int CHARS_PER_EVENT = 3;
+    private static final long EVENT_INTERVAL_MS = 15; // roughly a fast hosted model
+
+    private final HttpServer server;
+    private final long delayMillis;
+
+    private LocalSuggestionServer(HttpServer server, long delayMillis) {
+        this.server = server;
+        this.delayMillis = delayMillis;
+    }
+
+    /** Listens on localhost only, port 0 picks a free port */
+    public static LocalSuggestionServer start(int port, long delayMillis) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        LocalSuggestionServer local = new LocalSuggestionServer(server, delayMillis);
+        server.createContext(PATH, local::handle);
+
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "local-suggestion-server");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+        return local;
+    }
+
+    public String endpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + PATH;
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (method.equals("HEAD")) { // warm-up
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            if (!method.equals("POST")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String input;
+            boolean stream;
+            try (InputStream in = exchange.getRequestBody()) {
+                JsonObject request = JsonParser.parseString(new String(in.readAllBytes(), StandardCharsets.UTF_8)).getAsJsonObject();
+                input = lastUserMessage(request);
+                stream = request.has("stream") && request.get("stream").getAsBoolean();
+            } catch (RuntimeException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            if (!pause(delayMillis)) return;
+            if (stream) {
+                streamContinuation(exchange, continuationFor(input));
+                return;
+            }
+
+            byte[] body = completionJson(input + continuationFor(input)).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    // One "data:" event per few chars, then [DONE]. A client that hangs up just ends the loop with an IOException.
+    private static void streamContinuation(HttpExchange exchange, String continuation) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0); // chunked
+        try (OutputStream out = exchange.getResponseBody()) {
+            writeEvent(out, chunkJson(null, true));
+            for (int i = 0; i < continuation.length(); i += CHARS_PER_EVENT) {
+                if (i > 0 && !pause(EVENT_INTERVAL_MS)) return;
+                writeEvent(out, chunkJson(continuation.substring(i, Math.min(continuation.length(), i + CHARS_PER_EVENT)), false));
+            }
+            writeEvent(out, "[DONE]");
+        }
+    }
+
+    private static void writeEvent(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static boolean pause(long millis) {
+        if (millis <= 0) return true;
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String lastUserMessage(JsonObject request) {
+        JsonArray messages = request.getAsJsonArray("messages");
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            JsonObject message = messages.get(i).getAsJsonObject();
+            if ("user".equals(message.get("role").getAsString())) {
+                return message.get("content").getAsString();
+            }
+        }
+        return "";
+    }
+
+    // Something plausible for the line being typed, so ghosts have a visible shape
+    static String continuationFor(String input) {
+        String line = input.substring(input.lastIndexOf('\n') + 1);
+        String indent = line.substring(0, line.length() - line.stripLeading().length());
+        String trimmed = line.strip();
+        if (trimmed.endsWith(":")) return "\n" + indent + "    pass";
+        if (trimmed.endsWith("{")) return "\n" + indent + "    \n" + indent + "}";
+        if (trimmed.endsWith("(")) return ")";
+        if (trimmed.startsWith("print")) return "(\"hello\")";
+        if (trimmed.isEmpty()) return "# local suggestion";
+        return " // local suggestion";
+    }
+
+    private static String completionJson(String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", content);
+
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        choice.addProperty("finish_reason", "stop");
+
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+
+        JsonObject response = new JsonObject();
+        response.addProperty("object", "chat.completion");
+        response.addProperty("model", "local");
+        response.add("choices", choices);
+        return response.toString();
+    }
+
+    private static String chunkJson(String content, boolean first) {
+        JsonObject delta = new JsonObject();
+        if (first) delta.addProperty("role", "assistant");
+        if (content != null) delta.addProperty("content", content);
+
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("delta", delta);
+
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+
+        JsonObject chunk = new JsonObject();
+        chunk.addProperty("object", "chat.completion.chunk");
+        chunk.addProperty("model", "local");
+        chunk.add("choices", choices);
+        return chunk.toString();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        long delay = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        LocalSuggestionServer server = start(port, delay);
+        System.out.println("Serving completions at " + server.endpoint());
+        System.out.println("Use provider=openai and endpoint=" + server.endpoint() + " in " + SuggestionProviders.configFile());
+        Thread.currentThread().join(); // the server threads are daemons
+    }
+}
@@ -31,6 +31,7 @@ public class Main extends Application {
                 event.consume(); // Prevent window from closing
             }
             else{
+                controller.stopPrograms(); // a running program and the idle workers go with the window
                 Platform.exit();
                 System.exit(0);
             }
@@ -5,26 +5,32 @@ import javafx.fxml.FXML;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import javafx.stage.FileChooser;
+import javafx.stage.DirectoryChooser;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Files;
 import java.io.File;
 
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.fxmisc.richtext.CodeArea;
-import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.fxmisc.richtext.util.UndoUtils;
 
 
 import java.io.IOException;
@@ -37,9 +43,15 @@ import org.slf4j.LoggerFactory;
 public class MainController {
 
     @FXML
-    private StackPane editorPane;
+    private StackPane editorPane; // moves into the selected tab
     @FXML
     private TextArea textArea;
+    @FXML
+    private TabPane documentTabs;
+    @FXML
+    private FindBar findBar; // searches the current tab's document
+    @FXML
+    private Label caretStatus; // line, column, line count and selection of the current tab
 
     private CodeArea codeArea;
 
@@ -53,7 +65,13 @@ public class MainController {
     @FXML
     private Button executeModeToggle;
     @FXML
-    private TextArea outputArea;
+    private Button stopButton;
+    @FXML
+    private Button runTestsButton;
+    @FXML
+    private OutputConsole outputArea; // keeps only the last lines, see notepad.output.maxMB
+    @FXML
+    private Label runStats; // compile/run/CPU/memory of the last run
     @FXML
     private BorderPane rootPane;
 
@@ -63,41 +81,102 @@ public class MainController {
     @FXML
     private CheckMenuItem darkModeToggle;
 
-    private boolean isDirty = false; // true = unsaved changes exist
-    private File currentFile = null;
+    //One tab per open document; its PieceTable is the single source of truth for the text, both editors only display it
+    private final List<DocumentTab> openTabs = new CopyOnWriteArrayList<>(); // the shutdown hook reads it too
+    private DocumentTab current; // the selected tab, always loaded
+    private boolean isLoadingDocument = false; // true while we push the document into an editor ourselves
+    private boolean isReplayingHistory = false; // true while undo/redo edits the editor, not recorded again
+
+    //Heap the text of the tabs not shown may take; past it the least recently shown ones are spilled to the session temp dir
+    private static final long TAB_MEMORY_BUDGET = Long.getLong("notepad.tabs.memoryBudgetMB", 64) * 1024 * 1024;
+
+    //Files bigger than this open in the read-only memory-mapped view instead of being loaded into the heap
+    private static final long LARGE_FILE_THRESHOLD = Long.getLong("notepad.largeFileThreshold", 64L * 1024 * 1024);
+
+    //With -Dnotepad.output.spill=true the complete output of a run also goes to output.log in the session temp dir
+    private static final boolean SPILL_OUTPUT = Boolean.getBoolean("notepad.output.spill");
+
+    @FXML
+    private HBox loadingBar;
+    @FXML
+    private Label loadingLabel;
+    @FXML
+    private ProgressBar loadingProgress;
 
 
     private String currentSuggestion = "";
     private boolean isGhostVisible = false;
+    private int ghostStart = 0; // where the ghost text sits inside the CodeArea
 
     private Path sessionTempDir;
 
     public void setStage(Stage stage) {
         this.primaryStage = stage;
+        updateTitle();
     }
 
 
     private boolean isUpdating = false;
 
 
-    private GroqSuggestionService suggestionService = new GroqSuggestionService();
+    private final SuggestionProvider suggestionService = SuggestionProviders.fromConfig(); // see suggestions.properties
+    private final SaveEngine saveEngine = new SaveEngine();
+    private SyntaxHighlighter highlighter;
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
 
     private final ScheduledExecutorService debounceScheduler = Executors.newSingleThreadScheduledExecutor();
     private ScheduledFuture<?> debounceFuture;
+    private volatile CompletableFuture<String> inFlightSuggestion;
+    private final AtomicLong suggestionGeneration = new AtomicLong(); // bumped by every keystroke
+    private final SuggestionDebounce suggestionDebounce = new SuggestionDebounce();
 
     private boolean userTyped=false;
     private static final Logger logger = LoggerFactory.getLogger(MainController.class);
-    private Process runningProcess;
-
-    private final List<Process> runningProcesses = new ArrayList<>();
+    private final CodeRunner codeRunner = new CodeRunner(); // compiles and runs the code off the FX thread
+    //Builds of unchanged code are reused, across sessions too
+    private final CompileCache compileCache = new CompileCache(CompileCache.defaultDirectory(),
+            Long.getLong("notepad.buildCache.maxMB", 256) * 1024 * 1024);
+    private volatile CompileCache.Build pendingBuild; // compiled by the current run, cached if it succeeds
+    //With -Dnotepad.java.inProcess=true Java compiles and runs inside this JVM: faster, but a program that
+    //ignores Stop keeps spinning in the editor (see InProcessJava). Only taken with the CPU and memory limits
+    //off (-Dnotepad.run.cpuSeconds=0 -Dnotepad.run.maxMemoryMB=0), an in-process run can't be held to them.
+    private static final boolean JAVA_IN_PROCESS = javaInProcess();
+    private final InProcessJava inProcessJava = new InProcessJava(compileCache);
+    //Python, and Java unless it runs in-process, start in an interpreter/JVM that is already up
+    private static final boolean WARM_WORKERS = Boolean.parseBoolean(System.getProperty("notepad.workers", "true"));
+    private final Map<String, WorkerPool> workerPools = new ConcurrentHashMap<>();
+    private File lastTestFolder; // Run Tests starts there again
+    private FindInFilesWindow findInFiles; // made on first use, keeps its folder and hits when closed
+    private RunHistory runHistory; // null if -Dnotepad.profile.history=off
+
+    private static final KeyCombination UNDO_KEYS = new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN);
+    private static final KeyCombination REDO_KEYS = new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN);
+    private static final KeyCombination REDO_KEYS_ALT = new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN);
 
     @FXML
     public void initialize() {
-        textArea.textProperty().addListener((observable, oldValue, newValue) -> {
-            isDirty = true;// mark that there are unsaved changes
-            updateTitle();
+        //Every edit of the TextArea passes through the formatter, so mirror it into the document there
+        //(a textProperty listener would rebuild the whole String on every keystroke)
+        textArea.setTextFormatter(new TextFormatter<>(change -> {
+            if (!isLoadingDocument && change.isContentChange()) {
+                editDocument(change.getRangeStart(), change.getRangeEnd(), change.getText());
+            }
+            return change;
+        }));
+
+        //TextArea's own undo/redo would bypass the formatter and only know this editor, use the document's history
+        textArea.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
+            if (UNDO_KEYS.match(event)) {
+                event.consume();
+                handleUndo();
+            } else if (REDO_KEYS.match(event) || REDO_KEYS_ALT.match(event)) {
+                event.consume();
+                handleRedo();
+            }
         });
+        textArea.setContextMenu(createEditContextMenu());
+        textArea.caretPositionProperty().addListener((obs, old, caret) -> updateCaretStatus());
+        textArea.anchorProperty().addListener((obs, old, anchor) -> updateCaretStatus());
 
         languageSelector.getItems().addAll("Python", "Java", "C", "C++");
         languageSelector.getSelectionModel().selectFirst();
@@ -107,6 +186,7 @@ public class MainController {
         outputWrapper.setVisible(false);
         outputWrapper.setManaged(false);
         executeModeToggle.setDisable(true);
+        runTestsButton.setDisable(true);
 
         //code area setup
 
@@ -114,11 +194,8 @@ public class MainController {
             codeArea = new CodeArea();
             codeArea.setWrapText(true);
         }
-
-        codeArea.textProperty().addListener((obs, oldText, newText) -> {
-            isDirty = true;
-            updateTitle();
-        });
+        codeArea.caretPositionProperty().addListener((obs, old, caret) -> updateCaretStatus());
+        codeArea.anchorProperty().addListener((obs, old, anchor) -> updateCaretStatus());
 
         //Ensure only plain text area at startup
         editorPane.getChildren().clear();
@@ -131,8 +208,29 @@ public class MainController {
             showAlert("Could not create session temp dir:\n" + e.getMessage());
         }
 
+        findBar.setTarget(new EditorFindTarget());
+
+        //Switching tabs swaps the document the editors show
+        documentTabs.getSelectionModel().selectedItemProperty().addListener((obs, oldTab, newTab) -> {
+            if (newTab != null) showTab((DocumentTab) newTab.getUserData());
+        });
+        selectTab(addTab());
+        runHistory = RunHistory.fromProperties(sessionTempDir);
+        if (runHistory != null) runStats.setTooltip(new Tooltip("Run history: " + runHistory.file()));
+
         //ShutDown clean-up Using method reference
         Runtime.getRuntime().addShutdownHook(new Thread(this::cleanupTempDir));
+        //closing the window exits the JVM, the user's program must not keep running on its own
+        Runtime.getRuntime().addShutdownHook(new Thread(codeRunner::stop));
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeWorkerPools));
+        //a kill still gets the last second of typing into the journal
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (DocumentTab tab : openTabs) {
+                EditJournal journal = tab.journal;
+                if (journal != null) journal.flushNow();
+            }
+            EditJournal.awaitPendingWrites(); // e.g. the delete queued by a clean exit
+        }));
         //can also be done as
         /*
         Runtime.getRuntime().addShutdownHook(new Thread(()->{
@@ -144,8 +242,21 @@ public class MainController {
         setupGhostTextLogic();
 
         codeArea.getStylesheets().add(Objects.requireNonNull(getClass().getResource("ghost-suggestion.css")).toExternalForm());
+        codeArea.getStylesheets().add(Objects.requireNonNull(getClass().getResource("syntax-highlighting.css")).toExternalForm());
+
+        //Highlighting follows the language picked for running the code
+        highlighter = new SyntaxHighlighter(codeArea);
+        highlighter.setLanguage(SyntaxHighlighter.Language.fromName(languageSelector.getValue()));
+        languageSelector.valueProperty().addListener((obs, oldLanguage, newLanguage) -> {
+            highlighter.setLanguage(SyntaxHighlighter.Language.fromName(newLanguage));
+            warmUpLanguage();
+        });
+
+        //connect now so the first suggestion doesn't pay for TLS and connection setup
+        suggestionService.warmUp();
 
-        suggestionService= new GroqSuggestionService();
+        //after the stage is up: journals left by a crashed session
+        Platform.runLater(this::offerJournalRecovery);
     }
 
 
@@ -167,67 +278,13 @@ public class MainController {
 
     @FXML
     public void handleNew() {
-        if (isDirty) {
-            Alert alert = new Alert(Alert.AlertType.NONE);
-            alert.setTitle("Unsaved Changes");
-            alert.setHeaderText("Do you want to save the changes before creating a new file?");
-            alert.setContentText("Choose your option:");
-
-            ButtonType saveButton = new ButtonType("Save");
-            ButtonType dontSaveButton = new ButtonType("Don't Save");
-            ButtonType cancel = new ButtonType("Cancel");
-
-            alert.getButtonTypes().setAll(saveButton, dontSaveButton, cancel);
-
-            Optional<ButtonType> result = alert.showAndWait();//Shows the dialogBox and wait for response;
-            if (result.isPresent()) {
-                if (result.get() == saveButton) {
-                    handleSave();// save the current work
-                    if (isDirty)
-                        return;//if user cancelled save dialog box
-                } else if (result.get() == cancel) {
-                    return;// cancels new
-                }
-                //if both of them are not clicked then that means don't save is clicked, for that
-                //it will skip both processes and
-                // after this text area is cleared for a new file.
-            }
-
-        }
-
-        textArea.clear();       //Clear for new file
-        currentFile = null;       //forget the previous file
-        isDirty = false;     //reset unsaved flag , for new file consider no changes done yet.
-        updateTitle();
+        //A new document gets a tab of its own, the open ones stay as they are
+        selectTab(addTab());
         System.out.println("New File Created");
-
     }
 
     @FXML
     public void handleOpen() {
-        //check unsaved changes
-        if (isDirty) {
-            Alert alert = new Alert(Alert.AlertType.NONE);
-            alert.setTitle("Unsaved Changes");
-            alert.setHeaderText("You have unsaved changes.");
-            alert.setContentText("Do you want to save the changes before opening a new file?");
-
-            ButtonType saveButton = new ButtonType("Save");
-            ButtonType dontSaveButton = new ButtonType("Don't Save");
-            ButtonType cancel = new ButtonType("Cancel");
-            alert.getButtonTypes().setAll(saveButton, dontSaveButton, cancel);
-
-            Optional<ButtonType> result = alert.showAndWait();
-            if (result.isPresent()) {
-                if (result.get() == saveButton) {
-                    handleSave();
-                    if (isDirty) return;
-                } else if (result.get() == cancel) {
-                    return;
-                }
-                //else means don't save then we continue to open the file the user asked for...
-            }
-        }
         //Now show OPEN dialog box
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Open File");
@@ -237,71 +294,397 @@ public class MainController {
 
         File file = fileChooser.showOpenDialog(primaryStage);
         if (file != null) {
-            //currentFile = file;
-//            isDirty = false;
-//            primaryStage.setTitle(file.getName() + " - Notepad");
-
-            //Read the content of the current file that is chosen
-
-             /* String content = Files.readString(file.toPath());
-                blocks the JavaFX thread
-                fast for small files but will freeze the UI for Large files
-                textArea.setText(content);
-*/
-            //hence we use the BACKGROUND THREAD SO THAT UI ONLY TOUCHES IT WHEN IT'S READY
-            //THIS OVERCOMES THE FREEZING OF THE UI WITH LARGE FILES
-            //FOR THIS WE USE Platform.runLater
-
-            //BACKGROUND THREAD
-            new Thread(() -> {
-                //DEFAULT BUFFER SIZE IS 8192 characters (8KB)
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
-                    StringBuilder content = new StringBuilder();
-                    String line;
-
-                    while ((line = reader.readLine()) != null) {
-                        content.append(line).append("\n");
-                    }
-                    //Return to the main thread for UI changes
-                    javafx.application.Platform.runLater(() -> {
-                        textArea.setText(content.toString());
-                        currentFile = file;
-                        isDirty = false;
-                        updateTitle();
-
-                        System.out.println("Opened: " + file.getAbsolutePath());
-                    });
-                } catch (IOException e) {
-                    logger.error("Exception occurred", e);
-                    javafx.application.Platform.runLater(() -> {
-                        showAlert("Could not read the file:\n" + e.getMessage());
-                    });
-                }
-            }).start();
-
+            openFile(file);
         }
     }
 
     @FXML
-    public void handleSave() {
-        if (currentFile == null) {
-            handleSaveAs();//no currentFile , that means the file is saving for the first time & not have been saved earlier
+    private void handleCloseTab() {
+        DocumentTab tab = current;
+        if (!confirmClose(tab, "Do you want to save the changes before closing it?")) return;
+        documentTabs.getTabs().remove(tab.tab);
+        tabClosed(tab);
+    }
+
+    /**
+     * Opens a file chosen by the user in a tab: the one it is already open in, the current one if that is an
+     * untouched Untitled, or a new one. Big files get the mapped view, the rest are streamed into the editor.
+     */
+    private void openFile(File file) {
+        for (DocumentTab tab : openTabs) {
+            if (tab.file != null && tab.file.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+                selectTab(tab);
+                return;
+            }
+        }
+        if (!current.isPristine()) {
+            selectTab(addTab());
+        }
+        if (file.length() > LARGE_FILE_THRESHOLD) {
+            openLargeFile(file);
+        } else {
+            loadFile(current, file);
+        }
+    }
+
+    /** A new Untitled tab at the end of the strip, not selected yet */
+    private DocumentTab addTab() {
+        Tab header = new Tab();
+        DocumentTab tab = new DocumentTab(header, new PieceTable());
+        header.setOnCloseRequest(event -> {
+            if (!confirmClose(tab, "Do you want to save the changes before closing it?")) event.consume();
+        });
+        header.setOnClosed(event -> tabClosed(tab));
+        openTabs.add(tab);
+        updateTitle(tab);
+        documentTabs.getTabs().add(header);
+        return tab;
+    }
+
+    private void selectTab(DocumentTab tab) {
+        documentTabs.getSelectionModel().select(tab.tab);
+    }
+
+    // The tab is out of the strip already, the selection has moved on
+    private void tabClosed(DocumentTab tab) {
+        openTabs.remove(tab);
+        tab.dispose();
+        if (openTabs.isEmpty()) {
+            selectTab(addTab()); // never without a document
+        }
+        System.out.println("Closed " + tabName(tab) + ", " + openTabs.size() + " tabs open");
+    }
+
+    /**
+     * Called when the tab is selected: parks the previous tab (where the caret was, and its text leaves
+     * the editor), maps the new one back in if it was unloaded and shows it.
+     */
+    private void showTab(DocumentTab next) {
+        DocumentTab previous = current;
+        if (previous == next) return;
+        removeGhostText();
+        cancelPendingSuggestion();
+        if (previous != null) {
+            rememberPosition(previous);
+            previous.tab.setContent(null);
+            previous.lastShown = System.nanoTime();
+        }
+        current = next;
+
+        if (!next.isLoaded()) {
+            long start = System.nanoTime();
+            try {
+                next.reload();
+                System.out.println("Reloaded " + tabName(next) + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (IOException e) {
+                logger.error("Exception occurred", e);
+                //keep the tab, but never let an empty text be saved over the file
+                next.document = new PieceTable();
+                next.undoHistory.clear();
+                next.file = null;
+                Platform.runLater(() -> showAlert("Could not reload the tab's text:\n" + e.getMessage()));
+            }
+        }
+        if (next.largeFileView != null && codeModeToggle.isSelected()) {
+            codeModeToggle.setSelected(false);
+            handleCodeModeToggle();
+        }
+        editorPane.getChildren().setAll(next.largeFileView != null ? next.largeFileView
+                : codeModeToggle.isSelected() ? codeArea : textArea);
+        next.tab.setContent(editorPane);
+        showDocumentInEditor();
+        restorePosition(next);
+        setEditorsEditable(next.loader == null);
+        updateLoadingBar();
+        updateTitle();
+        unloadIdleTabs();
+    }
+
+    private void rememberPosition(DocumentTab tab) {
+        if (codeModeToggle.isSelected()) {
+            tab.anchor = codeArea.getAnchor();
+            tab.caret = codeArea.getCaretPosition();
+        } else {
+            tab.anchor = textArea.getAnchor();
+            tab.caret = textArea.getCaretPosition();
+            tab.scrollTop = textArea.getScrollTop();
+        }
+    }
+
+    private void restorePosition(DocumentTab tab) {
+        int length = tab.document.length();
+        int anchor = Math.min(tab.anchor, length);
+        int caret = Math.min(tab.caret, length);
+        if (codeModeToggle.isSelected()) {
+            codeArea.selectRange(anchor, caret);
+            codeArea.requestFollowCaret();
+        } else {
+            textArea.selectRange(anchor, caret);
+            textArea.setScrollTop(tab.scrollTop);
+        }
+    }
+
+    /**
+     * Keeps the text of the tabs that are not shown under the memory budget: the least recently shown ones
+     * are written to the session temp dir and dropped, and mapped back in when selected again.
+     */
+    private void unloadIdleTabs() {
+        if (sessionTempDir == null) return;
+        long total = 0;
+        List<DocumentTab> candidates = new ArrayList<>();
+        for (DocumentTab tab : openTabs) {
+            if (tab == current) continue;
+            total += tab.heapBytes();
+            if (tab.canUnload() && tab.heapBytes() > 0) candidates.add(tab);
+        }
+        if (total <= TAB_MEMORY_BUDGET) return;
+
+        Path spillDir = sessionTempDir.resolve("tabs");
+        try {
+            Files.createDirectories(spillDir);
+        } catch (IOException e) {
+            logger.error("Exception occurred", e);
             return;
         }
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(currentFile))) {
-            writer.write(textArea.getText());
-            isDirty = false;
+        candidates.sort(Comparator.comparingLong(tab -> tab.lastShown));
+        for (DocumentTab tab : candidates) {
+            if (total <= TAB_MEMORY_BUDGET) break;
+            total -= tab.heapBytes();
+            tab.spill(spillDir).whenComplete((spilled, error) -> Platform.runLater(() -> {
+                if (error != null) logger.error("Exception occurred", error);
+                // selected or closed while it was being written: keep it
+                boolean drop = error == null && tab != current && openTabs.contains(tab);
+                if (tab.finishUnload(spilled, drop)) {
+                    System.out.println("Unloaded " + tabName(tab) + " to stay under the tab memory budget");
+                }
+            }));
+        }
+    }
+
+    /*
+     * Reading with readLine() kept every line and re-appended "\n", building the text twice, and showed nothing
+     * until the whole file was read. Now a background thread decodes big chunks and every chunk goes straight
+     * into the document and the editor (batched through CoalescingUiUpdater), so the first screen is up right away.
+     * The load belongs to its tab and goes on while another one is shown.
+     */
+    private void loadFile(DocumentTab tab, File file) {
+        cancelLoad(tab);
+        discardJournal(tab);
+        tab.document = new PieceTable();
+        tab.undoHistory.clear();
+        tab.file = file;
+        tab.dirty = false;
+        tab.pendingHit = null;
+        DocumentLoader loader = new DocumentLoader(file.toPath());
+        tab.loader = loader;
+        if (tab == current) {
+            showDocumentInEditor();
+            setEditorsEditable(false); // appending at the end while the user edits would shift their offsets
+            updateLoadingBar();
+        }
+        updateTitle(tab);
+
+        CoalescingUiUpdater updater = new CoalescingUiUpdater(batch -> {
+            if (tab.loader != loader) return;// cancelled, or the tab was closed
+            appendLoadedText(tab, batch);
+            if (tab == current) loadingProgress.setProgress(loader.getProgress());
+        });
+
+        //BACKGROUND THREAD
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                DocumentLoader.Detected detected = loader.load(updater::append);
+                //Runs after the last batch, runLater keeps the order
+                Platform.runLater(() -> {
+                    if (tab.loader != loader) return;
+                    finishLoading(tab);
+                    if (detected == null) {
+                        //cancelled: don't keep a half-loaded file under its real name
+                        tab.document = new PieceTable();
+                        if (tab == current) showDocumentInEditor();
+                        tab.file = null;
+                        updateTitle(tab);
+                        return;
+                    }
+                    tab.charset = detected.charset();
+                    tab.bom = detected.bomLength() > 0;
+                    System.out.println("Opened: " + file.getAbsolutePath() + " (" + tab.charset + (tab.bom ? " with BOM" : "") + ", "
+                            + (System.nanoTime() - start) / 1_000_000 + " ms)");
+                    FileSearch.Hit hit = tab.pendingHit;
+                    tab.pendingHit = null;
+                    if (hit != null && tab == current) showHit(hit);
+                    unloadIdleTabs(); // it may have finished in the background
+                });
+            } catch (IOException e) {
+                logger.error("Exception occurred", e);
+                Platform.runLater(() -> {
+                    if (tab.loader != loader) return;
+                    finishLoading(tab);
+                    tab.document = new PieceTable();
+                    if (tab == current) showDocumentInEditor();
+                    tab.file = null;
+                    updateTitle(tab);
+                    showAlert("Could not read the file:\n" + e.getMessage());
+                });
+            }
+        }, "file-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Appends a loaded chunk to the tab's document and, if it is shown, to the editor, leaving the caret and scroll where they were */
+    private void appendLoadedText(DocumentTab tab, String batch) {
+        int length = tab.document.length();
+        tab.document.insert(length, batch);
+        if (tab != current) return;
+        findBar.edited(length, length, batch.length());
+        updateCaretStatus();
+        isLoadingDocument = true;
+        try {
+            if (codeModeToggle.isSelected()) {
+                codeArea.appendText(batch);
+            } else {
+                int anchor = textArea.getAnchor();
+                int caret = textArea.getCaretPosition();
+                double scrollTop = textArea.getScrollTop();
+                textArea.appendText(batch);
+                textArea.selectRange(anchor, caret);
+                textArea.setScrollTop(scrollTop);
+            }
+        } finally {
+            isLoadingDocument = false;
+        }
+    }
+
+    private void finishLoading(DocumentTab tab) {
+        tab.loader = null;
+        if (tab == current) {
+            updateLoadingBar();
+            setEditorsEditable(true);
+        }
+    }
+
+    private void cancelLoad(DocumentTab tab) {
+        if (tab.loader == null) return;
+        tab.loader.cancel();
+        finishLoading(tab);
+    }
+
+    @FXML
+    private void handleCancelLoad() {
+        if (current.loader == null) return;
+        current.loader.cancel();
+        updateLoadingBar();
+    }
+
+    // The bar shows the selected tab's load
+    private void updateLoadingBar() {
+        DocumentLoader loader = current.loader;
+        loadingBar.setVisible(loader != null);
+        loadingBar.setManaged(loader != null);
+        if (loader == null) return;
+        loadingLabel.setText(loader.isCancelled() ? "Cancelling..." : "Loading " + current.file.getName() + "...");
+        loadingProgress.setProgress(loader.getProgress());
+    }
+
+    private void setEditorsEditable(boolean editable) {
+        textArea.setEditable(editable);
+        codeArea.setEditable(editable);
+    }
+
+    /** Maps the file into the current tab instead of reading it; only the lines on screen are ever decoded */
+    private void openLargeFile(File file) {
+        try {
+            DocumentLoader.Detected detected = DocumentLoader.detect(file.toPath());
+            MappedTextFile mapped = MappedTextFile.open(file.toPath(), detected.charset(), detected.bomLength());
+            if (codeModeToggle.isSelected()) {
+                codeModeToggle.setSelected(false);
+                handleCodeModeToggle();
+            }
+            current.largeFileView = new LargeFileView(mapped);
+            current.undoHistory.clear();
+            editorPane.getChildren().setAll(current.largeFileView);
+
+            //The tab was an empty Untitled, the editors are hidden while the view is open
+            discardJournal(current);
+            current.file = file;
+            current.dirty = false;
             updateTitle();
-            System.out.println("File saved: " + currentFile.getAbsolutePath());
+            System.out.println("Opened read-only (mapped): " + file.getAbsolutePath());
         } catch (IOException e) {
-            logger.error("Exception occurred", e);//on console
-            showAlert("Could not save the file:\n" + e.getMessage());//on dialog_box
+            logger.error("Exception occurred", e);
+            showAlert("Could not read the file:\n" + e.getMessage());
         }
-        isDirty = false;
-        updateTitle();
+    }
 
+    @FXML
+    public void handleSave() {
+        saveDocument(current, false);
+    }
 
+    /**
+     * Saves the tab to its file, asking for a name first if there is none. Normally returns right away and
+     * the title updates once the background write is done; waitForDisk is for the "save, then close" prompts.
+     * Returns false if the user cancelled the dialog or (when waiting) the save failed.
+     */
+    private boolean saveDocument(DocumentTab tab, boolean waitForDisk) {
+        if (tab.largeFileView != null) return true; //read-only view, nothing was changed
+        File target = tab.file != null ? tab.file : chooseSaveFile();//no file yet, that means the file is saving for the first time
+        if (target == null) return false;
+        return writeDocument(tab, target, waitForDisk);
     }
+
+    /*
+     * Writing with a FileWriter on the FX thread froze the UI on big files, used the platform charset and
+     * truncated the file if we crashed mid-write. Now a snapshot of the document goes to SaveEngine, which
+     * writes a temp file on its own thread and renames it over the target.
+     */
+    private boolean writeDocument(DocumentTab tab, File target, boolean waitForDisk) {
+        PieceTable savedDocument = tab.document;
+        PieceTable snapshot = savedDocument.snapshot();
+        tab.pendingSaves++; // an unloaded tab would get a new document and never look saved
+        CompletableFuture<Void> save = saveEngine.save(snapshot, target.toPath(), tab.charset, tab.bom);
+
+        if (waitForDisk) {
+            try {
+                save.join();
+            } catch (CompletionException e) {
+                onSaveFinished(tab, target, savedDocument, snapshot, e);
+                return false;
+            }
+            onSaveFinished(tab, target, savedDocument, snapshot, null);
+            return true;
+        }
+        save.whenComplete((ignored, e) -> Platform.runLater(() -> onSaveFinished(tab, target, savedDocument, snapshot, e)));
+        return true;
+    }
+
+    private void onSaveFinished(DocumentTab tab, File target, PieceTable savedDocument, PieceTable snapshot, Throwable error) {
+        tab.pendingSaves--;
+        if (error != null) {
+            Throwable cause = error;
+            while ((cause instanceof CompletionException || cause instanceof UncheckedIOException) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            logger.error("Exception occurred", cause);//on console
+            showAlert("Could not save the file:\n" + cause.getMessage());//on dialog_box
+            return;
+        }
+        System.out.println("File saved: " + target.getAbsolutePath());
+        if (tab.document != savedDocument) return; // the tab was closed, or another file loaded into it, while we were writing
+
+        tab.file = target;            // Track this file for next saves
+        tab.dirty = !tab.document.isUnchangedSince(snapshot); // typing during the save keeps it dirty
+        if (!tab.dirty) {
+            discardJournal(tab);
+        } else if (tab.journal != null) {
+            //the journal may be based on the file we just overwrote, rebase it on the current text
+            tab.journal.compact(tab.file, tab.charset, tab.document.snapshot());
+        }
+        updateTitle(tab);
+    }
+
     //System.out.println("Save file clicked.");
 
 
@@ -315,6 +698,18 @@ public class MainController {
 
     @FXML
     public void handleSaveAs() {
+        File selectedFile = chooseSaveFile();
+
+        if (selectedFile != null && current.largeFileView != null) {
+            copyLargeFile(current.file, selectedFile);
+            return;
+        }
+        if (selectedFile != null) {  // If user didn’t cancel
+            writeDocument(current, selectedFile, false);
+        }
+    }
+
+    private File chooseSaveFile() {
         FileChooser fileChooser = new FileChooser();  //  Create a file chooser dialog
         fileChooser.setTitle("Save As");              // Set the title for the dialog
 
@@ -323,93 +718,31 @@ public class MainController {
                 new FileChooser.ExtensionFilter("All Files", "*.*")
         );
 
-        File selectedFile = fileChooser.showSaveDialog(primaryStage);  //Show dialog
-
-        if (selectedFile != null) {  // 5. If user didn’t cancel
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(selectedFile))) {
-                writer.write(textArea.getText());      // Write text from editor to file
-
-                currentFile = selectedFile;            // Track this file for next saves
-                isDirty = false;                       // Reset unsaved changes flag
-
-                updateTitle();
-                // Update title bar
+        return fileChooser.showSaveDialog(primaryStage);  //Show dialog
+    }
 
-                System.out.println("File saved as: " + selectedFile.getAbsolutePath());
 
+    //A read-only large file can only be saved as a byte-for-byte copy, done off the FX thread
+    private void copyLargeFile(File source, File target) {
+        new Thread(() -> {
+            try {
+                Files.copy(source.toPath(), target.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("File saved as: " + target.getAbsolutePath());
             } catch (IOException e) {
                 logger.error("Exception occurred", e);
-                // show user-friendly error dialog
+                Platform.runLater(() -> showAlert("Could not save the file:\n" + e.getMessage()));
             }
-
-        }
-        isDirty = false;
-        updateTitle();
-
+        }).start();
     }
 
-
     @FXML
     public void handleExit() {
-        // Check which editor has content and unsaved changes
-        boolean shouldCheckForChanges;
-        String currentContent;
-
-        if (codeModeToggle.isSelected()) {
-            shouldCheckForChanges = codeArea != null && !codeArea.getText().isEmpty();
-            assert codeArea != null;
-            currentContent = codeArea.getText();
-        } else {
-            shouldCheckForChanges = !textArea.getText().isEmpty();
-            currentContent = textArea.getText();
-        }
-
-        boolean dirty = shouldCheckForChanges && isDirty;
-        if (dirty) {
-            Alert alert = new Alert(Alert.AlertType.NONE);
-            alert.setTitle("Unsaved Changes");
-            alert.setHeaderText("You have unsaved changes.");
-            alert.setContentText("Do you want to save before exiting?");
-
-            //defining buttons
-            ButtonType saveButton = new ButtonType("Save");
-            ButtonType dontSaveButton = new ButtonType("Don't Save");
-            ButtonType cancelButton = new ButtonType("Cancel");
-            //adding buttons to dialog box
-            alert.getButtonTypes().addAll(saveButton, dontSaveButton, cancelButton);
-
-            //Response from user via buttons
-            Optional<ButtonType> result = alert.showAndWait();
-            if (result.isPresent()) {
-                if (result.get() == saveButton) {
-                    if(codeModeToggle.isSelected()) {
-                        handleSaveCodeMode();
-                    }
-                    else {
-                        handleSave();
-                    }
-                    if (isDirty) return;//if save was cancelled or returned
-                } else if (result.get() == cancelButton) {
-                    return;
-                }
-                //Else means user doesn't want to save the current work on file
-                //so go on and exit
-            }
-        }
-        if (runningProcess != null && runningProcess.isAlive()) {
-            // Kill all children first
-            runningProcess.descendants().forEach(ProcessHandle::destroyForcibly);
-
-            // Kill the main process
-            runningProcess.destroyForcibly();
-
-            try {
-                runningProcess.waitFor(); // only on Process, not ProcessHandle
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
+        // Asks about every tab with unsaved changes
+        if (!confirmCloseAll("Do you want to save before exiting?")) return;
+        codeRunner.stop(); // a program still running would outlive us
+        closeWorkerPools();
         //no unsaved changes
+        openTabs.forEach(this::discardJournal);
         primaryStage.close();
         cleanupTempDir();
 
@@ -424,63 +757,365 @@ public class MainController {
         Runtime.getRuntime().halt(0);
     }
 
-    private void handleSaveCodeMode() {
-        if (currentFile == null) {
-            handleSaveAs(); // reuse existing Save As logic
-        } else {
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(currentFile))) {
-                writer.write(codeArea.getText());
-                isDirty = false;
-                updateTitle();
-            } catch (IOException e) {
-                showAlert("Could not save file:\n" + e.getMessage());
+    public boolean handleExitRequest() {
+        if (!confirmCloseAll("Do you want to save before exiting?")) return false;
+        openTabs.forEach(this::discardJournal);
+        return true;//No unsaved changes left, safe to exit
+    }
+
+    private boolean confirmCloseAll(String question) {
+        for (DocumentTab tab : openTabs) {
+            if (!confirmClose(tab, question)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Save / Don't Save / Cancel for a tab with unsaved changes, shown with that tab selected.
+     * Returns false if the user cancelled or the save failed.
+     */
+    private boolean confirmClose(DocumentTab tab, String question) {
+        // Nothing to lose in an empty Untitled
+        if (!tab.dirty || (tab.file == null && tab.isLoaded() && tab.document.length() == 0)) return true;
+        selectTab(tab);
+
+        Alert alert = new Alert(Alert.AlertType.NONE);
+        alert.setTitle("Unsaved Changes");
+        alert.setHeaderText("You have unsaved changes in " + tabName(tab) + ".");
+        alert.setContentText(question);
+
+        ButtonType saveButton = new ButtonType("Save", ButtonBar.ButtonData.YES);
+        ButtonType dontSaveButton = new ButtonType("Don't Save", ButtonBar.ButtonData.NO);
+        ButtonType cancelButton = new ButtonType("Cancel", ButtonBar.ButtonData.CANCEL_CLOSE);
+        alert.getButtonTypes().setAll(saveButton, dontSaveButton, cancelButton);
+
+        Optional<ButtonType> result = alert.showAndWait();
+        if (result.isEmpty() || result.get() == cancelButton) return false;//dialog closed without selection
+        if (result.get() == saveButton) return saveDocument(tab, true);//only go on if the save was successful
+        return true;
+    }
+
+    /** Every user edit of the document goes through here, so it also lands in the journal */
+    private void editDocument(int start, int end, String text) {
+        DocumentTab tab = current;
+        if (tab.journal == null && tab.largeFileView == null) {
+            tab.journal = startJournal(tab);   // base = the document as it is before this first unsaved edit
+        }
+        if (!isReplayingHistory) tab.undoHistory.record(tab.document, start, end, text);
+        tab.document.replace(start, end, text);
+        findBar.edited(start, end, text.length());
+        updateCaretStatus();
+        if (tab.journal != null) {
+            tab.journal.recordReplace(start, end, text);
+            if (tab.journal.wantsCompaction()) {
+                tab.journal.compact(tab.file, tab.charset, tab.document.snapshot());
             }
         }
+        markDirty();
     }
 
+    private EditJournal startJournal(DocumentTab tab) {
+        Path dir = EditJournal.defaultDirectory();
+        // a clean document is exactly the file on disk, no need to copy its text into the journal
+        if (!tab.dirty && tab.file != null) {
+            return EditJournal.startFromFile(dir, tab.file, tab.charset);
+        }
+        return EditJournal.startFromText(dir, tab.file, tab.charset, tab.document.snapshot());
+    }
 
-    public boolean handleExitRequest() {
-        if (isDirty) {
-            Alert alert = new Alert(Alert.AlertType.NONE);
-            alert.setTitle("Unsaved Changes");
-            alert.setHeaderText("You have unsaved changes.");
-            alert.setContentText("Do you want to save before exiting?");
+    private void discardJournal(DocumentTab tab) {
+        if (tab.journal == null) return;
+        tab.journal.discard();
+        tab.journal = null;
+    }
 
-            ButtonType saveButton = new ButtonType("Save", ButtonBar.ButtonData.YES);
-            ButtonType dontSaveButton = new ButtonType("Don't Save", ButtonBar.ButtonData.NO);
-            ButtonType cancelButton = new ButtonType("Cancel", ButtonBar.ButtonData.CANCEL_CLOSE);
+    /** Offers to restore the unsaved work of a session that crashed or was killed, newest first, each in a tab */
+    private void offerJournalRecovery() {
+        for (Path orphan : EditJournal.findOrphans(EditJournal.defaultDirectory())) {
+            EditJournal.Recovered recovered;
+            try {
+                recovered = EditJournal.replay(orphan);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Exception occurred", e);
+                showAlert("Unsaved changes from a previous session could not be restored:\n" + e.getMessage());
+                EditJournal.delete(orphan);
+                continue;
+            }
+
+            String name = recovered.file() != null ? recovered.file().getName() : "Untitled";
+            Alert alert = new Alert(Alert.AlertType.NONE);
+            alert.setTitle("Recover Unsaved Changes");
+            alert.setHeaderText("The editor did not close properly last time.");
+            alert.setContentText("Restore the unsaved changes to " + name + "?");
 
-            alert.getButtonTypes().addAll(saveButton, dontSaveButton, cancelButton);
+            ButtonType recoverButton = new ButtonType("Recover", ButtonBar.ButtonData.YES);
+            ButtonType discardButton = new ButtonType("Discard", ButtonBar.ButtonData.NO);
+            ButtonType laterButton = new ButtonType("Later", ButtonBar.ButtonData.CANCEL_CLOSE);
+            alert.getButtonTypes().setAll(recoverButton, discardButton, laterButton);
 
             Optional<ButtonType> result = alert.showAndWait();
+            if (result.isEmpty() || result.get() == laterButton) return;
+            if (result.get() == discardButton) {
+                EditJournal.delete(orphan);
+                continue;
+            }
+
+            // into the empty Untitled we start with, then a new tab for each further one
+            if (!current.isPristine()) selectTab(addTab());
+            DocumentTab tab = current;
+            tab.document = recovered.document();
+            tab.undoHistory.clear();
+            tab.file = recovered.file();
+            tab.charset = recovered.charset();
+            tab.bom = hasBom(tab.file, tab.charset); // not in the journal, the file still tells
+            showDocumentInEditor();
+            tab.dirty = true;
+            tab.journal = EditJournal.startFromText(EditJournal.defaultDirectory(), tab.file, tab.charset, tab.document.snapshot());
+            EditJournal.delete(orphan);
+            updateTitle();
+            System.out.println("Recovered unsaved changes to " + name);
+        }
+    }
 
-            if (result.isPresent()) {
-                if (result.get() == saveButton) {
-                    handleSave();
-                    return !isDirty;//only exit if save was successful
-                } else return result.get() == dontSaveButton;
+    // An unreadable or missing file has no BOM to keep
+    private boolean hasBom(File file, Charset charset) {
+        if (file == null) return false;
+        try {
+            DocumentLoader.Detected detected = DocumentLoader.detect(file.toPath());
+            return detected.bomLength() > 0 && detected.charset().equals(charset);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    //Title is only touched on the first edit, not on every keystroke
+    private void markDirty() {
+        if (!current.dirty) {
+            current.dirty = true;
+            updateTitle();
+        }
+    }
+
+    /** Push the document into the visible editor without echoing the change back into the document */
+    private void showDocumentInEditor() {
+        isLoadingDocument = true;
+        try {
+            String text = current.document.toString();
+            if (codeModeToggle.isSelected()) {
+                codeArea.replaceText(text);
+            } else {
+                textArea.setText(text);
             }
-            return false;//dialog closed without selection
+        } finally {
+            isLoadingDocument = false;
         }
+        findBar.documentChanged();
+        updateCaretStatus();
+    }
 
-        return true;//No unsaved changes, safe to exit
+    private ContextMenu createEditContextMenu() {
+        MenuItem undo = new MenuItem("Undo");
+        undo.setOnAction(e -> handleUndo());
+        MenuItem redo = new MenuItem("Redo");
+        redo.setOnAction(e -> handleRedo());
+        MenuItem cut = new MenuItem("Cut");
+        cut.setOnAction(e -> handleCut());
+        MenuItem copy = new MenuItem("Copy");
+        copy.setOnAction(e -> handleCopy());
+        MenuItem paste = new MenuItem("Paste");
+        paste.setOnAction(e -> handlePaste());
+        MenuItem selectAll = new MenuItem("Select All");
+        selectAll.setOnAction(e -> handleSelectAll());
+        return new ContextMenu(undo, redo, new SeparatorMenuItem(), cut, copy, paste, new SeparatorMenuItem(), selectAll);
     }
 
     //STANDARD CONVENTION FOR TEXT EDITORS TO DISTINGUISH BETWEEN SAVED AND UNSAVED FILES
     private void updateTitle() {
-        String fileName = (currentFile != null) ? currentFile.getName() : "Untitled";
-        String dirtyMark = isDirty ? "*" : "";
-        primaryStage.setTitle(fileName + dirtyMark + " - Notepad");
+        updateTitle(current);
+    }
+
+    /** Line and column from the document's line index, O(log n) however long the document is */
+    private void updateCaretStatus() {
+        DocumentTab tab = current;
+        if (tab == null || !tab.isLoaded()) return;
+        if (tab.largeFileView != null) {
+            caretStatus.setText("Read-only view");
+            return;
+        }
+        PieceTable document = tab.document;
+        int caret, anchor;
+        if (codeModeToggle.isSelected()) {
+            caret = toDocumentOffset(codeArea.getCaretPosition());
+            anchor = toDocumentOffset(codeArea.getAnchor());
+        } else {
+            caret = textArea.getCaretPosition();
+            anchor = textArea.getAnchor();
+        }
+        //the caret can move before the edit reaches the document, editDocument updates again after it
+        caret = Math.min(caret, document.length());
+        anchor = Math.min(anchor, document.length());
+        int line = document.lineOf(caret);
+        String status = String.format("Ln %,d, Col %,d    %,d lines", line + 1, caret - document.lineStart(line) + 1,
+                document.lineCount());
+        if (caret != anchor) status += String.format("    %,d selected", Math.abs(caret - anchor));
+        caretStatus.setText(status);
+    }
+
+    // The tab's header always, the window title if it is the selected one
+    private void updateTitle(DocumentTab tab) {
+        String dirtyMark = tab.dirty ? "*" : "";
+        tab.tab.setText(tabName(tab) + dirtyMark);
+        tab.tab.setTooltip(tab.file != null ? new Tooltip(tab.file.getAbsolutePath()) : null);
+        if (tab != current || primaryStage == null) return;
+        String readOnlyMark = tab.largeFileView != null ? " [read-only]" : "";
+        primaryStage.setTitle(tabName(tab) + dirtyMark + readOnlyMark + " - Notepad");
+    }
+
+    private static String tabName(DocumentTab tab) {
+        return (tab.file != null) ? tab.file.getName() : "Untitled";
     }
 
     @FXML
     public void handleUndo() {
-        textArea.undo();
+        if (current.loader != null || current.largeFileView != null) return;
+        replayHistory(current.undoHistory.undo());
     }
 
     @FXML
     public void handleRedo() {
-        textArea.redo();
+        if (current.loader != null || current.largeFileView != null) return;
+        replayHistory(current.undoHistory.redo());
+    }
+
+    /** Applies an undo/redo change through the shown editor, so the document, journal and find bar follow like for typing */
+    private void replayHistory(UndoHistory.Change change) {
+        if (change == null) return;
+        removeGhostText();
+        isReplayingHistory = true;
+        try {
+            if (codeModeToggle.isSelected()) {
+                codeArea.replaceText(change.start(), change.end(), change.text());
+            } else {
+                textArea.replaceText(change.start(), change.end(), change.text());
+            }
+        } finally {
+            isReplayingHistory = false;
+        }
+        int caret = change.start() + change.text().length();
+        selectInEditor(caret, caret);
+    }
+
+    @FXML
+    public void handleFind() {
+        findBar.show(false);
+    }
+
+    @FXML
+    public void handleReplace() {
+        findBar.show(true);
+    }
+
+    @FXML
+    public void handleGoToLine() {
+        DocumentTab tab = current;
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.initOwner(primaryStage);
+        dialog.setTitle("Go To Line");
+        dialog.setHeaderText(null);
+        dialog.setContentText(tab.largeFileView != null ? "Line:" : "Line (1 - " + tab.document.lineCount() + "), or line:column:");
+        Optional<String> answer = dialog.showAndWait();
+        if (answer.isEmpty() || answer.get().isBlank()) return;
+
+        String[] parts = answer.get().trim().split("\\s*:\\s*", 2);
+        int line, column;
+        try {
+            line = Integer.parseInt(parts[0]) - 1;
+            column = parts.length > 1 ? Integer.parseInt(parts[1]) - 1 : 0;
+        } catch (NumberFormatException e) {
+            showAlert("Not a line number: " + answer.get());
+            return;
+        }
+        if (tab.largeFileView != null) {
+            tab.largeFileView.showLine(Math.max(0, line));
+            return;
+        }
+        PieceTable document = tab.document;
+        line = Math.max(0, Math.min(line, document.lineCount() - 1));
+        int offset = document.lineStart(line) + Math.max(0, Math.min(column, document.lineEnd(line) - document.lineStart(line)));
+        selectInEditor(offset, offset);
+        (codeModeToggle.isSelected() ? codeArea : textArea).requestFocus();
+    }
+
+    @FXML
+    public void handleFindInFiles() {
+        if (findInFiles == null) findInFiles = new FindInFilesWindow(primaryStage, this::openHit);
+        findInFiles.show();
+    }
+
+    /** Opens the hit's file like Open does and shows the hit, once the file is in if it is still loading */
+    private void openHit(FileSearch.Hit hit) {
+        openFile(hit.file().toFile());
+        DocumentTab tab = current;
+        if (tab.largeFileView != null) {
+            tab.largeFileView.showLine(hit.line());
+        } else if (tab.loader != null) {
+            tab.pendingHit = hit;
+        } else {
+            showHit(hit);
+        }
+        primaryStage.toFront();
+    }
+
+    private void showHit(FileSearch.Hit hit) {
+        PieceTable document = current.document;
+        int line = Math.min(hit.line(), document.lineCount() - 1);
+        int start = Math.min(document.lineStart(line) + hit.column(), document.lineEnd(line));
+        selectInEditor(start, Math.min(start + hit.length(), document.lineEnd(line)));
+    }
+
+    private void selectInEditor(int start, int end) {
+        if (codeModeToggle.isSelected()) {
+            removeGhostText();
+            codeArea.selectRange(start, end);
+            codeArea.requestFollowCaret();
+        } else {
+            textArea.selectRange(start, end);
+        }
+    }
+
+    /** The find bar works on the current tab through whichever editor shows it */
+    private class EditorFindTarget implements FindBar.Target {
+        @Override
+        public PieceTable document() {
+            return current.largeFileView != null ? null : current.document; // the mapped view is read-only
+        }
+
+        @Override
+        public int selectionStart() {
+            return codeModeToggle.isSelected() ? toDocumentOffset(codeArea.getSelection().getStart()) : textArea.getSelection().getStart();
+        }
+
+        @Override
+        public int selectionEnd() {
+            return codeModeToggle.isSelected() ? toDocumentOffset(codeArea.getSelection().getEnd()) : textArea.getSelection().getEnd();
+        }
+
+        @Override
+        public void select(int start, int end) {
+            selectInEditor(start, end);
+        }
+
+        @Override
+        public void replace(int start, int end, String text) {
+            if (current.loader != null) return; // the editors are read-only until the file is in
+            //through the editor like typing, so it is one edit for the document, the journal and undo
+            if (codeModeToggle.isSelected()) {
+                removeGhostText();
+                codeArea.replaceText(start, end, text);
+            } else {
+                textArea.replaceText(start, end, text);
+            }
+        }
     }
 
     @FXML
@@ -521,13 +1156,19 @@ public class MainController {
 
     @FXML
     private void handleCodeModeToggle() {
+        if (current.largeFileView != null && codeModeToggle.isSelected()) {
+            codeModeToggle.setSelected(false);
+            showAlert("Code Mode is not available for large files opened read-only.");
+            return;
+        }
         boolean isCodeMode = codeModeToggle.isSelected();
 
         outputWrapper.setVisible(isCodeMode);
         outputWrapper.setManaged(isCodeMode);
 
         languageSelector.setDisable(!isCodeMode);
-        executeModeToggle.setDisable(!isCodeMode);
+        executeModeToggle.setDisable(!isCodeMode || codeRunner.isRunning());
+        runTestsButton.setDisable(!isCodeMode || codeRunner.isRunning());
 
         //codeArea.textProperty().addListener((obs, old, new) -> isDirty = true);
 
@@ -539,22 +1180,31 @@ public class MainController {
             codeArea = new CodeArea();
             //here obs=codeArea.textProperty()(object that is being watched)
             codeArea.textProperty().addListener((obs, oldText, newText) -> {
-                isDirty = true;
+                current.dirty = true;
                 updateTitle();
             });
         }
 
         //Clear the existing editor pane
         editorPane.getChildren().clear();
-        if (isCodeMode) {
-            codeArea.replaceText(textArea.getText());
-            editorPane.getChildren().add(codeArea);
-        } else {
-            textArea.setText(codeArea != null ? codeArea.getText() : "");
-            editorPane.getChildren().add(textArea);
+        removeGhostText();
+        //Fill the editor we switch to from the document and empty the hidden one, so only one copy stays on screen
+        isLoadingDocument = true;
+        try {
+            if (isCodeMode) {
+                textArea.clear();
+                editorPane.getChildren().add(codeArea);
+            } else {
+                codeArea.clear();
+                editorPane.getChildren().add(textArea);
+            }
+        } finally {
+            isLoadingDocument = false;
         }
+        showDocumentInEditor();
 
 
+        warmUpLanguage();
         System.out.println("Code Mode is " + (isCodeMode ? "ON" : "OFF"));
     }
 
@@ -564,30 +1214,293 @@ public class MainController {
             outputArea.setText("Code Mode must be enabled first to execute.");
             return;
         }
+        if (codeRunner.isRunning()) return;
 
 
 //        String code = textArea.getText();
-        String code = codeModeToggle.isSelected() ? codeArea.getText() : textArea.getText();
+        String code = current.document.toString();
 
         String language = languageSelector.getValue();
+        Path temDir = sessionTempDir; //folder for storing code files
 
+        outputArea.clear();
+        if (SPILL_OUTPUT) {
+            try {
+                outputArea.spillTo(temDir.resolve("output.log"));
+            } catch (IOException e) {
+                logger.error("Exception occurred", e);
+            }
+        }
+        executeModeToggle.setDisable(true);
+        runTestsButton.setDisable(true);
+        stopButton.setDisable(false);
+
+        //Output is streamed in while the program runs; the console keeps the last lines and redraws once per pulse
+        if (JAVA_IN_PROCESS && language.equals("Java") && inProcessJava.canRun(code)) {
+            //no javac and java processes, two JVM starts saved
+            codeRunner.runTask(inProcessJava.task(detectJavaClassName(code), code), outputArea::append,
+                    result -> runFinished(result, language, code));
+        } else {
+            codeRunner.run(() -> prepareRun(code, language, temDir), outputArea::append,
+                    result -> runFinished(result, language, code));
+        }
+    }
+
+    // An Execute run also goes into the run history, to compare it with other versions of the code
+    private void runFinished(CodeRunner.Result result, String language, String code) {
+        runFinished(result);
+        RunHistory history = runHistory;
+        if (history == null) return;
+        CodeRunner.Profile profile = result.profile() != null ? result.profile() : new CodeRunner.Profile(-1, -1, -1, -1);
+        String outcome = result.limit() != null ? result.limit() + " exceeded"
+                : result.stopped() ? "stopped"
+                : result.compileFailed() ? "compilation failed"
+                : result.error() != null ? "error: " + result.error().getMessage()
+                : result.exitCode() == 0 ? "ok" : "exit code " + result.exitCode();
         try {
-            Path temDir = sessionTempDir; //folder for storing code files
-            File codeFile;
-            ProcessBuilder processBuilder;
+            history.append(new RunHistory.Entry(Instant.now(), language, RunHistory.sourceHash(code), result.exitCode(),
+                    outcome, profile.compileMillis(), profile.runMillis(), result.millis(), profile.cpuMillis(),
+                    profile.peakRssBytes()));
+        } catch (IOException e) {
+            logger.error("Exception occurred", e);
+        }
+    }
 
+    // On the runner thread, after the program's last output
+    private void runFinished(CodeRunner.Result result) {
+        finishBuild(result);
+        outputArea.append(describeRunResult(result)); // after all output, same buffer
+        outputArea.closeSpill();
+        String stats = describeProfile(result);
+        Platform.runLater(() -> {
+            runStats.setText(stats);
+            executeModeToggle.setDisable(!codeModeToggle.isSelected());
+            runTestsButton.setDisable(!codeModeToggle.isSelected());
+            stopButton.setDisable(true);
+        });
+    }
 
-            switch (language) {
-                case "Python" -> {
-                    String fileName = "script.py";
-                    codeFile = new File(temDir.toFile(), fileName);
+    /**
+     * Runs the program once per test case of a folder (name.in, expected output in name.out), all cases
+     * at once, and shows which passed. The program is built once, always as a process: every case
+     * needs its own stdin.
+     */
+    @FXML
+    private void handleRunTests() {
+        if (!codeModeToggle.isSelected() || codeRunner.isRunning()) return;
 
-                    Files.writeString(codeFile.toPath(), code);
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Folder with test cases (name.in and name.out)");
+        if (lastTestFolder != null && lastTestFolder.isDirectory()) chooser.setInitialDirectory(lastTestFolder);
+        File folder = chooser.showDialog(primaryStage);
+        if (folder == null) return;
+        lastTestFolder = folder;
 
-                    String pythonCmd = System.getProperty("os.name").toLowerCase().contains("win") ? "python" : "python3";
-                    processBuilder = new ProcessBuilder(pythonCmd, codeFile.getAbsolutePath());
-                    processBuilder.directory(temDir.toFile());
-                }
+        List<TestCaseRunner.TestCase> cases;
+        try {
+            cases = TestCaseRunner.findCases(folder.toPath());
+        } catch (IOException e) {
+            logger.error("Exception occurred", e);
+            showAlert("Could not read the test folder:\n" + e.getMessage());
+            return;
+        }
+        if (cases.isEmpty()) {
+            showAlert("No test cases in " + folder + ".\nA case is a name.in file, with its expected output in name.out.");
+            return;
+        }
+
+        String code = current.document.toString();
+        String language = languageSelector.getValue();
+        Path temDir = sessionTempDir;
+        TestResultsWindow results = new TestResultsWindow(primaryStage, folder.getName(), cases);
+        results.show();
+
+        outputArea.clear();
+        executeModeToggle.setDisable(true);
+        runTestsButton.setDisable(true);
+        stopButton.setDisable(false);
+        TestCaseRunner.Setup setup = build -> {
+            Program program = prepareProgram(code, language, temDir);
+            build.addAll(program.build());
+            return program.process();
+        };
+        codeRunner.runTask(TestCaseRunner.task(setup, cases, temDir.resolve("tests"), ProcessSupervisor.Limits.fromProperties(),
+                        outcome -> Platform.runLater(() -> results.add(outcome))),
+                outputArea::append,
+                result -> {
+                    Platform.runLater(() -> results.finished(result));
+                    runFinished(result);
+                });
+    }
+
+    // Get the selected language's compiler or interpreter going before the first Execute
+    private void warmUpLanguage() {
+        String language = languageSelector.getValue();
+        if (!codeModeToggle.isSelected() || sessionTempDir == null) return;
+        if (JAVA_IN_PROCESS && "Java".equals(language)) {
+            inProcessJava.warmUp(); // its pool is only for the odd program that can't run in-process
+        } else if (WARM_WORKERS && ("Python".equals(language) || "Java".equals(language))) {
+            try {
+                workerPool(language, sessionTempDir).warmUp();
+            } catch (IOException e) {
+                logger.error("Exception occurred", e);
+            }
+        }
+    }
+
+    // One pool per language, started on first use
+    private static boolean javaInProcess() {
+        if (!Boolean.parseBoolean(System.getProperty("notepad.java.inProcess", "false"))) return false;
+        if (ProcessSupervisor.Limits.fromProperties().allowInProcess()) return true;
+        System.out.println("notepad.java.inProcess ignored: the CPU and memory limits are on, Java runs as a process");
+        return false;
+    }
+
+    private WorkerPool workerPool(String language, Path temDir) throws IOException {
+        WorkerPool pool = workerPools.get(language);
+        if (pool != null) return pool;
+        synchronized (workerPools) {
+            pool = workerPools.get(language);
+            if (pool == null) {
+                pool = language.equals("Python") ? WorkerPool.python(temDir) : WorkerPool.java(temDir);
+                workerPools.put(language, pool);
+            }
+            return pool;
+        }
+    }
+
+    private void closeWorkerPools() {
+        workerPools.values().forEach(WorkerPool::close);
+    }
+
+    /** The window is closing: nothing we started may outlive the editor */
+    public void stopPrograms() {
+        codeRunner.stop();
+        closeWorkerPools();
+    }
+
+    @FXML
+    private void handleStopExecution() {
+        codeRunner.stop();
+    }
+
+    // A run that got past compiling without being stopped leaves a good build behind
+    private void finishBuild(CodeRunner.Result result) {
+        CompileCache.Build build = pendingBuild;
+        pendingBuild = null;
+        if (build == null) return;
+        if (!result.compileFailed() && !result.stopped() && result.error() == null) {
+            compileCache.commit(build);
+        } else {
+            compileCache.discard(build);
+        }
+    }
+
+    /**
+     * The directory with the compiled program: a cached build, or a new one the compile step added to
+     * steps writes into. Only the source is hashed, so the compiler is skipped for code that ran before.
+     */
+    private Path cachedBuild(String language, String compiler, List<String> flags, File codeFile, String code,
+                             List<CodeRunner.Step> steps, Path temDir) throws IOException {
+        String key = CompileCache.key(language, compileCache.compilerVersion(compiler), flags, codeFile.getName(), code);
+        Path cached = compileCache.lookup(key);
+        if (cached != null) {
+            logger.debug("Build cache hit for {}, skipping {}", codeFile.getName(), compiler);
+            return cached;
+        }
+
+        Files.writeString(codeFile.toPath(), code);
+        CompileCache.Build build = compileCache.begin(key);
+        pendingBuild = build;
+
+        List<String> command = new ArrayList<>();
+        command.add(compiler);
+        command.addAll(flags);
+        if (compiler.equals("javac")) {
+            command.addAll(List.of("-d", build.dir().toString(), codeFile.getAbsolutePath()));
+        } else {
+            command.addAll(List.of(codeFile.getAbsolutePath(), "-o", build.dir().resolve(executableName()).toString()));
+        }
+        // Compile, its errors show up in the output like the program's
+        steps.add(CodeRunner.step(new ProcessBuilder(command).directory(temDir.toFile())));
+        return build.dir();
+    }
+
+    // Cross-platform output filename
+    private static String executableName() {
+        return System.getProperty("os.name").toLowerCase().contains("win") ? "main.exe" : "main";
+    }
+
+    // The strip under the output: "Compile 0.84 s | Run 0.12 s | CPU 0.10 s | Peak RSS 12.3 MB | Wall 0.97 s"
+    private static String describeProfile(CodeRunner.Result result) {
+        List<String> parts = new ArrayList<>();
+        CodeRunner.Profile profile = result.profile();
+        if (profile != null) {
+            parts.add(profile.compileMillis() > 0 ? String.format("Compile %.2f s", profile.compileMillis() / 1000.0) : "No compile");
+            if (profile.runMillis() >= 0) parts.add(String.format("Run %.2f s", profile.runMillis() / 1000.0));
+            if (profile.cpuMillis() >= 0) parts.add(String.format("CPU %.2f s", profile.cpuMillis() / 1000.0));
+            if (profile.peakRssBytes() >= 0) parts.add(String.format("Peak RSS %.1f MB", profile.peakRssBytes() / (1024.0 * 1024)));
+        }
+        parts.add(String.format("Wall %.2f s", result.millis() / 1000.0));
+        return String.join("  |  ", parts);
+    }
+
+    private String describeRunResult(CodeRunner.Result result) {
+        if (result.error() != null) {
+            System.out.println("Error while executing the code: \n" + result.error().getMessage());
+            //Print the error msg on the output text area instead of console
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            result.error().printStackTrace(pw);
+            return "\n" + sw;
+        }
+        String time = String.format("%.2f s", result.millis() / 1000.0);
+        if (result.limit() != null) return "\n[Killed after " + time + ": " + result.limit() + " exceeded]";
+        if (result.stopped()) return "\n[Stopped after " + time + "]";
+        if (result.compileFailed()) return "\n[Compilation failed with exit code " + result.exitCode() + "]";
+        return "\n[Process finished with exit code " + result.exitCode() + " in " + time + "]";
+    }
+
+    /**
+     * Writes the code to the session temp dir and returns the commands to run: build steps first, the
+     * program last. Runs on the code runner thread.
+     */
+    private List<CodeRunner.Step> prepareRun(String code, String language, Path temDir) throws IOException {
+        Program program = prepareProgram(code, language, temDir);
+        List<CodeRunner.Step> steps = new ArrayList<>(program.build());
+        if (WARM_WORKERS && program.workerRequest() != null) {
+            //the interpreter or JVM is already up, it only has to be told what to run
+            steps.add((CodeRunner.PooledStep) () -> workerPool(language, temDir).take(program.workerRequest()));
+        } else {
+            steps.add(CodeRunner.step(program.process()));
+        }
+        return steps;
+    }
+
+    /** The build steps, and the program as a command that still needs its stdin (what a worker needs instead) */
+    private record Program(List<CodeRunner.Step> build, ProcessBuilder process, String workerRequest) {
+    }
+
+    private Program prepareProgram(String code, String language, Path temDir) throws IOException {
+        File codeFile;
+        ProcessBuilder processBuilder;
+        String workerRequest = null;
+        List<CodeRunner.Step> steps = new ArrayList<>();
+
+        switch (language) {
+            case "Python" -> {
+                String fileName = "script.py";
+                codeFile = new File(temDir.toFile(), fileName);
+
+                Files.writeString(codeFile.toPath(), code);
+
+                String pythonCmd = System.getProperty("os.name").toLowerCase().contains("win") ? "python" : "python3";
+                processBuilder = new ProcessBuilder(pythonCmd, codeFile.getAbsolutePath());
+                processBuilder.directory(temDir.toFile());
+                //python block-buffers stdout into a pipe, the output would only come at the end
+                processBuilder.environment().put("PYTHONUNBUFFERED", "1");
+                workerRequest = codeFile.getAbsolutePath();
+            }
 
 //                case "Python" -> {
 //                    codeFile = new File(temDir.toFile(), "script.py");
@@ -598,57 +1511,30 @@ public class MainController {
 
 
 
-                case "Java" -> {
-                    String className = detectJavaClassName(code);
-                    System.out.println(">>> Detected className: " + className);
+            case "Java" -> {
+                String className = detectJavaClassName(code);
+                System.out.println(">>> Detected className: " + className);
 
-                    codeFile = new File(temDir.toFile(), className + ".java");
-                    Files.writeString(codeFile.toPath(), code);
+                codeFile = new File(temDir.toFile(), className + ".java");
+                Path classes = cachedBuild("Java", "javac", List.of(), codeFile, code, steps, temDir);
 
-                    // Compile
-                    Process compile = new ProcessBuilder("javac", codeFile.getAbsolutePath())
-                            .directory(temDir.toFile())
-                            .start();
-
-                    // Capture compile errors
-                    String compileErrors = new String(compile.getErrorStream().readAllBytes());
-                    compile.waitFor();
-                    runningProcesses.add(compile);
-
-                    if (compile.exitValue() != 0) {
-                        outputArea.setText("Compilation failed:\n" + compileErrors);
-                        return;
-                    }
+                // Run (set classpath for safety)
+                processBuilder = new ProcessBuilder("java", className);
+                processBuilder.directory(temDir.toFile());
+                processBuilder.environment().put("CLASSPATH", classes.toAbsolutePath().toString());
+                workerRequest = classes.toAbsolutePath() + "\t" + className;
+            }
 
-                    // Run (set classpath for safety)
-                    processBuilder = new ProcessBuilder("java", className);
-                    processBuilder.directory(temDir.toFile());
-                    processBuilder.environment().put("CLASSPATH", temDir.toAbsolutePath().toString());
-                }
+            case "C" -> {
+                String fileName = detectCOrCppFileName(code, "C") + ".c";
+                codeFile = new File(temDir.toFile(), fileName);
 
-                case "C" -> {
-                    String fileName = detectCOrCppFileName(code, "C") + ".c";
-                    codeFile = new File(temDir.toFile(), fileName);
-                    Files.writeString(codeFile.toPath(), code);
-
-                    // Cross-platform output filename
-                    String outputFileName = System.getProperty("os.name").toLowerCase().contains("win") ? "main.exe" : "main";
-                    File outputFile = new File(temDir.toFile(), outputFileName);
-
-                    // Compile
-                    Process compile = new ProcessBuilder("gcc", codeFile.getAbsolutePath(), "-o", outputFile.getAbsolutePath())
-                            .directory(temDir.toFile())
-                            .start();
-                    compile.waitFor();
-                    runningProcesses.add(compile);
-                    if (!outputFile.exists()) {
-                        outputArea.setText("Compilation failed: Executable not created.");
-                        return;
-                    }
+                // a failing gcc ends the run with its exit code
+                Path build = cachedBuild("C", "gcc", List.of(), codeFile, code, steps, temDir);
 
-                    // Run
-                    processBuilder = new ProcessBuilder(outputFile.getAbsolutePath());
-                }
+                // Run
+                processBuilder = new ProcessBuilder(build.resolve(executableName()).toString());
+            }
 
 //                case "C" -> {
 //                    //COPY TO FILE
@@ -669,30 +1555,14 @@ public class MainController {
 //
 //                }
 
-                case "C++" -> {
-                    String fileName = detectCOrCppFileName(code, "C++") + ".cpp";
-                    codeFile = new File(temDir.toFile(), fileName);
-                    Files.writeString(codeFile.toPath(), code);
-
-                    // Cross-platform output filename
-                    String outputFileName = System.getProperty("os.name").toLowerCase().contains("win") ? "main.exe" : "main";
-                    File outputFile = new File(temDir.toFile(), outputFileName);
-
-                    // Compile
-                    Process compile = new ProcessBuilder("g++", codeFile.getAbsolutePath(), "-o", outputFile.getAbsolutePath())
-                            .directory(temDir.toFile())
-                            .start();
-                    runningProcesses.add(compile);
-                    compile.waitFor();
-
-                    if (!outputFile.exists()) {
-                        outputArea.setText("Compilation failed: Executable not created.");
-                        return;
-                    }
+            case "C++" -> {
+                String fileName = detectCOrCppFileName(code, "C++") + ".cpp";
+                codeFile = new File(temDir.toFile(), fileName);
+                Path build = cachedBuild("C++", "g++", List.of(), codeFile, code, steps, temDir);
 
-                    // Run
-                    processBuilder = new ProcessBuilder(outputFile.getAbsolutePath());
-                }
+                // Run
+                processBuilder = new ProcessBuilder(build.resolve(executableName()).toString());
+            }
 
 //                case "C++" -> {
 //                    String fileName = detectCOrCppFileName(code, "C++") + ".cpp";
@@ -731,26 +1601,10 @@ public class MainController {
 //                }
 
 
-                default -> {
-                    outputArea.setText("Unsupported Language Selected");
-                    return;
-                }
-            }
-            //RUN
-            processBuilder.redirectErrorStream(true);//stderr to stdout  catches (error + normal) output
-            runningProcess = processBuilder.start();
-            runningProcesses.add(runningProcess);
-            String output = new String(runningProcess.getInputStream().readAllBytes());
-            outputArea.setText(output);
-        } catch (IOException | InterruptedException e) {
-
-            System.out.println("Error while executing the code: \n" + e.getMessage());
-            //Print the error msg on the output text area instead of console
-            StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw);
-            e.printStackTrace(pw);
-            outputArea.setText(sw.toString());
+            default -> throw new IOException("Unsupported Language Selected");
         }
+        //RUN
+        return new Program(steps, processBuilder, workerRequest);
     }
 
 
@@ -812,6 +1666,10 @@ public class MainController {
     }
 
     private void setupGhostTextLogic() {
+        //Undo is the document's UndoHistory, fed from editDocument: the ghost (isUpdating) and loading a text
+        //never get there. The CodeArea's own manager would keep a second, unbounded copy of every change.
+        codeArea.setUndoManager(UndoUtils.noOpUndoManager());
+
         codeArea.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
             if (event.getCode() == KeyCode.TAB) {
                 event.consume();
@@ -822,6 +1680,12 @@ public class MainController {
                     codeArea.insertText(pos, "\t");
                     codeArea.moveTo(pos + 1);
                 }
+            } else if (UNDO_KEYS.match(event)) {
+                event.consume();
+                handleUndo();
+            } else if (REDO_KEYS.match(event) || REDO_KEYS_ALT.match(event)) {
+                event.consume();
+                handleRedo();
             }
 
         });
@@ -845,116 +1709,195 @@ public class MainController {
         });
 
 
-        codeArea.textProperty().addListener((obs, oldText, newText) -> {
-            if (isUpdating) return;
+        //plainTextChanges gives just the edited range, unlike textProperty which rebuilds the whole text
+        codeArea.plainTextChanges().subscribe(change -> {
+            if (isUpdating || isLoadingDocument) return;
+
+            applyCodeAreaChange(change.getPosition(), change.getRemovalEnd(), change.getInserted());
 
             removeGhostText();
-            if (newText.trim().isEmpty()) return;
+            suggestionDebounce.keystroke();
+
+            // Cancel any pending suggestion task, and the request already on the wire
+            cancelPendingSuggestion();
+            if (current.document.isBlank()) return;
 
-            // Cancel any pending suggestion task
-            if (debounceFuture != null && !debounceFuture.isDone()) {
-                debounceFuture.cancel(false);
+            //Background work reads this snapshot and caret instead of touching the CodeArea off the FX thread
+            PieceTable latestText = current.document.snapshot();
+            int caretPosition = codeArea.getCaretPosition();
+            long generation = suggestionGeneration.get();
+
+            long delay = suggestionDebounce.delayMillis(suggestionService.getLatencyMillis());
+            System.out.println("Scheduling suggestion in " + delay + " ms, document length: " + current.document.length());
+            debounceFuture = debounceScheduler.schedule(
+                    () -> requestSuggestion(latestText, caretPosition, generation), delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void cancelPendingSuggestion() {
+        suggestionGeneration.incrementAndGet();
+        if (debounceFuture != null && !debounceFuture.isDone()) {
+            debounceFuture.cancel(false);
+        }
+        CompletableFuture<String> request = inFlightSuggestion;
+        if (request != null) {
+            request.cancel(true); // the provider cancels the HTTP call with it
+        }
+    }
+
+    /**
+     * Runs on the debounce thread but never waits on the network: the request is chained with
+     * CompletableFuture stages and the ghost is shown from the FX thread when the answer arrives.
+     */
+    private void requestSuggestion(PieceTable latestText, int caretPosition, long generation) {
+        //A bounded window around the caret, not the whole prefix: request size stays flat on big files
+        CompletionContext.Window window = CompletionContext.extract(latestText, caretPosition);
+        String context = window.prefix();
+        System.out.println("API Call for: " + context);
+
+        //Streaming: tokens grow the ghost as they arrive, batched to at most one FX update per pulse
+        StringBuilder streamed = new StringBuilder();
+        CoalescingUiUpdater ghostGrowth = new CoalescingUiUpdater(tokens -> {
+            streamed.append(tokens);
+            if (!ghostStillWanted(latestText, caretPosition, generation)) return;
+            if (isGhostVisible) {
+                extendGhostText(tokens);
+            } else if (!streamed.toString().isBlank()) {
+                showGhostText(context, streamed.toString()); // leading newlines/indent wait for real text
             }
-            System.out.println("Scheduling suggestion for: " + newText);
+        });
 
-            // Schedule a new task with delay
-            debounceFuture = debounceScheduler.schedule(() -> {
-                String latestText = codeArea.getText();
-                int caretPosition = codeArea.getCaretPosition();
+        CompletableFuture<String> request = suggestionService.getSuggestion(context, window.following(), ghostGrowth::append);
+        inFlightSuggestion = request;
+        if (suggestionGeneration.get() != generation) {
+            request.cancel(true); // a keystroke came in while we were starting it
+            return;
+        }
 
-                try {
-                    System.out.println("API Call for: " + latestText);
-                    String context = latestText.substring(0,Math.min(caretPosition,latestText.length()));
-                    String suggestion = suggestionService.getSuggestion(context).get();
-                    System.out.println("Suggestion: " + suggestion);
+        request.thenApply(suggestion -> ghostFor(suggestion, context))
+                .thenAcceptAsync(ghost -> {
+                    // Only show the ghost if nothing changed and the caret is still where we asked
+                    if (current.document.isUnchangedSince(latestText) && codeArea.getCaretPosition() == caretPosition) {
+                        // Only show ghost if caret is at end or user actually typed
+                        if (caretPosition == latestText.length() || userTyped) {
+                            // a streamed ghost usually is the final one already
+                            if (!isGhostVisible || !currentSuggestion.equals(ghost)) {
+                                showGhostText(context, ghost);
+                            }
+                        } else {
+                            removeGhostText();
+                        }
+                    }
+                    // reset flag after suggestion is handled
+                    userTyped = false;
+                }, Platform::runLater)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (!(cause instanceof CancellationException)) {
+                        logger.error("Exception occurred", cause);
+                    }
+                    return null;
+                });
+    }
 
-                    if (suggestion != null && !suggestion.isBlank()) {
-                        String ghost = "";
+    // Same checks as for the final answer, for streamed tokens that arrive before it
+    private boolean ghostStillWanted(PieceTable latestText, int caretPosition, long generation) {
+        return suggestionGeneration.get() == generation
+                && current.document.isUnchangedSince(latestText)
+                && codeArea.getCaretPosition() == caretPosition
+                && (caretPosition == latestText.length() || userTyped);
+    }
 
-                        System.out.println("latestText: >>>" + latestText + "<<<");
-                        System.out.println("suggestion: >>>" + suggestion + "<<<");
-                        System.out.println("caretPosition: " + caretPosition);
-                        System.out.println("latestText.substring(0, caretPosition): >>>" +
-                                context + "<<<");
+    /** The part of the model's answer that comes after what the user already typed, "" if none */
+    private String ghostFor(String suggestion, String context) {
+        System.out.println("Suggestion: " + suggestion);
+        if (suggestion == null || suggestion.isBlank()) return "";
 
+        String ghost = "";
 
-                        String normalizedSuggestion = normalize(suggestion);
-                        String normalizedContext = normalize(context);
+        System.out.println("suggestion: >>>" + suggestion + "<<<");
+        System.out.println("latestText.substring(0, caretPosition): >>>" +
+                context + "<<<");
 
-                        if (normalizedSuggestion.startsWith(normalizedContext)) {
-                            // Calculate ghost using original suggestion's index (not normalized)
-                            //System.out    (4 Spaces) =>Suggestion-> System.out.println(); -> ghost should be .println();
-                            //Here suggestion.length is the trimmed length, to avoid extra spaces if in context
-                            //ghost = suggestion.substring(Math.min(context.length(), suggestion.length()));
-                            // Fix ghost start index calculation (handles tabs/spaces properly)
-                            // Find ghost start index correctly
-                            int ghostStartIndex = findGhostStartIndex(suggestion, normalizedContext);
 
-                            // Clamp ghostStartIndex
-                            ghostStartIndex = Math.min(Math.max(ghostStartIndex, context.length()), suggestion.length());
+        String normalizedSuggestion = normalize(suggestion);
+        String normalizedContext = normalize(context);
 
-                            // Extract ghost text
-                            ghost = suggestion.substring(ghostStartIndex);
+        if (normalizedSuggestion.startsWith(normalizedContext)) {
+            // Calculate ghost using original suggestion's index (not normalized)
+            //System.out    (4 Spaces) =>Suggestion-> System.out.println(); -> ghost should be .println();
+            //Here suggestion.length is the trimmed length, to avoid extra spaces if in context
+            //ghost = suggestion.substring(Math.min(context.length(), suggestion.length()));
+            // Fix ghost start index calculation (handles tabs/spaces properly)
+            // Find ghost start index correctly
+            int ghostStartIndex = findGhostStartIndex(suggestion, normalizedContext);
 
+            // Clamp ghostStartIndex
+            ghostStartIndex = Math.min(Math.max(ghostStartIndex, context.length()), suggestion.length());
 
+            // Extract ghost text
+            ghost = suggestion.substring(ghostStartIndex);
 
-                            // Clear ghost if invalid
-                            if (ghost.isBlank()) {
-                                ghost = "";
-                            }
-                        } else {
-                            System.out.println("Suggestion structure doesn't match. Fallback to empty ghost.");
-                            ghost = "";
-                        }
 
 
-//
-//                        // Use caret position to extract the ghost part after the caret
-//                        if (suggestion.startsWith(context)) {
-//                            ghost = suggestion.substring(context.length());
-//                        }
-//                        //else if (caretPosition < suggestion.length() &&
-//                            //    suggestion.startsWith(latestText.substring(0, caretPosition))) {
-//
-//                          //  ghost = suggestion.substring(caretPosition);
-//                        //}
-//                        else {
-//                            System.out.println("Suggestion structure doesn't match. Fallback to empty ghost.");
-//                            ghost = "";
-//                        }
-
-                        String finalGhost = ghost;
-                        Platform.runLater(() -> {
-                            if (codeArea.getText().equals(latestText)) {
-                                // Only show ghost if caret is at end or user actually typed
-                                if (caretPosition == latestText.length() || userTyped) {
-                                    showGhostText(latestText, finalGhost);
-                                } else {
-                                    removeGhostText();
-                                }
-                            }
-                            // reset flag after suggestion is handled
-                            userTyped = false;
-                        });
-                    }
-                } catch (Exception e) {
-                    logger.error("Exception occurred", e);
-                }
-                finally {
-                    userTyped=false;
-                }
-            }, 600, TimeUnit.MILLISECONDS);
+            // Clear ghost if invalid
+            if (ghost.isBlank()) {
+                ghost = "";
+            }
+        } else {
+            System.out.println("Suggestion structure doesn't match. Fallback to empty ghost.");
+            ghost = "";
+        }
+        return ghost;
+    }
 
 
-        });
+    /**
+     * Mirror a CodeArea edit into the document. The ghost text only exists in the CodeArea,
+     * so editor offsets past the ghost are shifted back by its length.
+     */
+    private void applyCodeAreaChange(int position, int removalEnd, String inserted) {
+        if (!isGhostVisible) {
+            editDocument(position, removalEnd, inserted);
+            return;
+        }
+        int ghostEnd = ghostStart + currentSuggestion.length();
+        int docStart = toDocumentOffset(position);
+        int docEnd = toDocumentOffset(removalEnd);
+        editDocument(docStart, docEnd, inserted);
+
+        if (removalEnd <= ghostStart) {
+            ghostStart += inserted.length() - (removalEnd - position);// edit before the ghost moves it
+        } else if (position < ghostEnd) {
+            // edit went into the ghost itself: put the real text back over just the ghost and the edit
+            int from = Math.min(position, ghostStart);
+            int oldEnd = Math.max(removalEnd, ghostEnd);
+            int newEnd = oldEnd + inserted.length() - (removalEnd - position);
+            int docNewEnd = toDocumentOffset(oldEnd) + inserted.length() - (docEnd - docStart);
+            isGhostVisible = false;
+            currentSuggestion = "";
+            isUpdating = true;
+            try {
+                codeArea.replaceText(from, newEnd, current.document.getText(from, docNewEnd));
+                codeArea.moveTo(docStart + inserted.length());
+            } finally {
+                isUpdating = false;
+            }
+            highlighter.clearGhost();
+        }
+    }
+
+    private int toDocumentOffset(int editorOffset) {
+        if (!isGhostVisible || editorOffset <= ghostStart) return editorOffset;
+        return Math.max(ghostStart, editorOffset - currentSuggestion.length());
     }
 
 
     /** Align ghost indentation with the current line's indentation */
-    private String alignIndentation(String ghost, int caretPosition, String latestText) {
-        // Find the current line's indentation
-        int lineStart = latestText.lastIndexOf('\n', caretPosition - 1) + 1;
-        String lineIndentation = latestText.substring(lineStart, caretPosition)
+    private String alignIndentation(String ghost, int caretPosition, PieceTable document) {
+        // Find the current line's indentation, from the line index instead of scanning back for '\n'
+        int lineStart = document.lineStart(document.lineOf(caretPosition));
+        String lineIndentation = document.getText(lineStart, caretPosition)
                 .replaceAll("\\S", ""); // Keep only spaces/tabs
 
         return lineIndentation + ghost.stripLeading();
@@ -999,33 +1942,27 @@ public class MainController {
 
 
 
+    /**
+     * The ghost is inserted into the CodeArea at the caret and nowhere else, so showing it costs the
+     * suggestion length, not the document length. The document never sees it.
+     */
     public void showGhostText(String userText, String suggestion) {
+        removeGhostText();
+        if (suggestion.isEmpty()) return;
+
         isUpdating = true;
         try {
             // Get the caret position where user is typing
             int caretPosition = codeArea.getCaretPosition();
 
-            // Split the full text into two parts: before and after caret
-            String beforeCaret = codeArea.getText(0, caretPosition);
-            String afterCaret = codeArea.getText(caretPosition, codeArea.getLength());
-
-            // Combine: user typed + suggestion + rest of old content
-            String combined = beforeCaret + suggestion + afterCaret;
-
-            // Styling: mark user typed part as normal, suggestion as ghost, rest as normal
-            StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-            spansBuilder.add(Collections.singleton("normal"), beforeCaret.length());
-            spansBuilder.add(Collections.singleton("ghost-text"), suggestion.length());
-            spansBuilder.add(Collections.singleton("normal"), afterCaret.length());
-
-            // Replace full text
-            codeArea.replaceText(combined);
-            codeArea.setStyleSpans(0, spansBuilder.create());
+            codeArea.insertText(caretPosition, suggestion);
+            highlighter.setGhost(caretPosition, suggestion.length());
 
             // Move caret to just after user's typed input (not at end of suggestion)
-            codeArea.moveTo(beforeCaret.length());
+            codeArea.moveTo(caretPosition);
 
             // Set state
+            ghostStart = caretPosition;
             currentSuggestion = suggestion;
             isGhostVisible = true;
         } finally {
@@ -1034,65 +1971,53 @@ public class MainController {
     }
 
 
-    private void acceptGhostSuggestion() {
-        if (!isGhostVisible || currentSuggestion.isEmpty()) return;
+    /** Streaming: append to the visible ghost, the caret stays in front of it */
+    private void extendGhostText(String more) {
+        if (!isGhostVisible || more.isEmpty()) return;
 
-        // Block our ghost‐listener while we do the replace
         isUpdating = true;
-
         try {
-            String suggestion = currentSuggestion;
-            int totalLen = codeArea.getLength();
-            int ghostStart = totalLen - suggestion.length();
-
-            // Replace *just* the ghost span with the real text
-            codeArea.replaceText(
-                    ghostStart,
-                    ghostStart + suggestion.length(),
-                    suggestion
-            );
-
-            // Re‐style the entire document as “normal”
-            StyleSpansBuilder<Collection<String>> spans = new StyleSpansBuilder<>();
-            spans.add(Collections.singleton("normal"), codeArea.getLength());
-            codeArea.setStyleSpans(0, spans.create());
-
-            // Move caret to end of the inserted text
-            codeArea.moveTo(codeArea.getLength());
+            codeArea.insertText(ghostStart + currentSuggestion.length(), more);
+            currentSuggestion += more;
+            highlighter.setGhost(ghostStart, currentSuggestion.length());
         } finally {
-            // Reset all our flags
             isUpdating = false;
-            isGhostVisible = false;
-            currentSuggestion = "";
         }
     }
 
 
-    private void removeGhostText() {
-        if (!isGhostVisible) return;
+    private void acceptGhostSuggestion() {
+        if (!isGhostVisible || currentSuggestion.isEmpty()) return;
 
-        String fullText = codeArea.getText();
-        if (fullText.endsWith(currentSuggestion)) {
-            isUpdating = true;
-            try {
+        String suggestion = currentSuggestion;
+        int insertAt = ghostStart;
 
-                int ghostStart = fullText.length() - currentSuggestion.length();
-                if (ghostStart < 0) return;
+        // Drop the ghost, then insert the same text as a normal edit: the change listener
+        // puts it into the document and its undo history like anything typed
+        removeGhostText();
+        codeArea.insertText(insertAt, suggestion);
 
-                String realText = fullText.substring(0, ghostStart);
-                codeArea.replaceText(realText);
+        // Move caret to end of the inserted text
+        codeArea.moveTo(insertAt + suggestion.length());
+    }
 
-                StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-                spansBuilder.add(Collections.singleton("normal"), realText.length());
-                codeArea.setStyleSpans(0, spansBuilder.create());
 
-            } finally {
-                isUpdating = false;
-            }
-        }
+    private void removeGhostText() {
+        if (!isGhostVisible) return;
 
+        //The document never contained the ghost, deleting its span is all it takes
+        int start = ghostStart;
+        int end = ghostStart + currentSuggestion.length();
         isGhostVisible = false;
         currentSuggestion = "";
+
+        isUpdating = true;
+        try {
+            codeArea.deleteText(start, end);
+        } finally {
+            isUpdating = false;
+        }
+        highlighter.clearGhost();
     }
 
 }
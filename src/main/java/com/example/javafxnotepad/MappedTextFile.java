@@ -0,0 +1,263 @@
+package com.example.javafxnotepad;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * Read-only, memory-mapped view of a text file too big to load into the heap.
+ *
+ * The file is mapped in 1 GB segments (a single MappedByteBuffer is limited to 2 GB) and nothing is
+ * decoded up front. A sparse line index remembers the byte offset of every {@value #STRIDE}th line,
+ * so the heap cost is a few bytes per thousand lines and a single line is found by a short forward scan.
+ * Only lines actually asked for (the ones on screen) are decoded.
+ *
+ * The line scan looks for '\n' code units: a '\n' byte in an ASCII compatible charset (UTF-8, ISO-8859-x,
+ * ...), an aligned 0A 00 / 00 0A pair in UTF-16LE / UTF-16BE. A BOM is not part of line 0.
+ */
+public class MappedTextFile {
+
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final int STRIDE = 256;
+    /** Lines longer than this are cut when displayed, a 500 MB single-line file must not be decoded in one go */
+    static final int MAX_LINE_BYTES = 16 * 1024;
+
+    private final Path path;
+    private final Charset charset;
+    private final long size;
+    private final MappedByteBuffer[] segments;
+    private final long textStart;   // after the BOM
+    private final long textEnd;     // size, less a trailing odd byte in UTF-16
+    private final int unit;         // bytes per code unit, 2 for UTF-16
+    private final boolean bigEndian;
+
+    // checkpoints[i] = byte offset where line i * STRIDE starts, filled by indexLines()
+    private volatile long[] checkpoints = new long[1024];
+    private volatile int checkpointCount = 1;
+    private volatile int lineCount;
+    private volatile boolean indexed;
+
+    // last line looked up, scrolling asks for neighbouring lines over and over
+    private int cachedLine = -1;
+    private long cachedLineStart;
+
+    private MappedTextFile(Path path, Charset charset, int bomLength, long size, MappedByteBuffer[] segments) {
+        this.path = path;
+        this.charset = charset;
+        this.size = size;
+        this.segments = segments;
+        this.unit = charset.name().startsWith("UTF-16") ? 2 : 1;
+        this.bigEndian = charset.name().equals("UTF-16BE");
+        this.textStart = Math.min(bomLength, size);
+        this.textEnd = textStart + (size - textStart) / unit * unit;
+        this.checkpoints[0] = textStart;
+        this.lineCount = textEnd == textStart ? 1 : 0;
+    }
+
+    /** bomLength bytes at the start are skipped, see {@link DocumentLoader#detect} */
+    public static MappedTextFile open(Path path, Charset charset, int bomLength) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+            // the mapping stays valid after the channel is closed
+            return new MappedTextFile(path, charset, bomLength, size, segments);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /** Lines found so far; grows while {@link #indexLines} runs */
+    public int lineCount() {
+        return lineCount;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Scans the whole file once for line breaks. Meant for a background thread: progress is reported
+     * every few MB with the number of lines found so far, and the scan stops early if cancelled.
+     */
+    public void indexLines(IntConsumer progress, BooleanSupplier cancelled) {
+        int lines = 0;
+        long reportAt = 0;
+        byte[] chunk = new byte[64 * 1024];
+        // the chunks and segments have even sizes, so a UTF-16 code unit never straddles two of them
+        byte low = bigEndian ? 0 : (byte) '\n';
+        byte high = bigEndian ? (byte) '\n' : 0;
+        for (long pos = textStart; pos < textEnd; ) {
+            // bulk copy out of the mapping, per-byte get() calls are several times slower
+            ByteBuffer segment = segments[(int) (pos >>> SEGMENT_BITS)];
+            int offset = (int) (pos & (SEGMENT_SIZE - 1));
+            int count = (int) Math.min(Math.min(chunk.length, segment.capacity() - offset), textEnd - pos);
+            segment.get(offset, chunk, 0, count);
+
+            if (unit == 1) {
+                for (int i = 0; i < count; i++) {
+                    if (chunk[i] == '\n') {
+                        lines++;
+                        if (lines % STRIDE == 0) addCheckpoint(pos + i + 1);
+                    }
+                }
+            } else {
+                for (int i = 0; i + 1 < count; i += 2) {
+                    if (chunk[i] == low && chunk[i + 1] == high) {
+                        lines++;
+                        if (lines % STRIDE == 0) addCheckpoint(pos + i + 2);
+                    }
+                }
+            }
+            pos += count;
+
+            if (pos >= reportAt) {
+                if (cancelled.getAsBoolean()) return;
+                lineCount = lines;
+                progress.accept(lines);
+                reportAt = pos + (8 << 20);
+            }
+        }
+        // text after the last '\n' (or an empty file) is one more line
+        lineCount = (textEnd == textStart || !isUnit(textEnd - unit, '\n')) ? lines + 1 : lines;
+        indexed = true;
+        progress.accept(lineCount);
+    }
+
+    private void addCheckpoint(long offset) {
+        long[] points = checkpoints;
+        int count = checkpointCount;
+        if (count == points.length) {
+            points = Arrays.copyOf(points, count * 2);
+        }
+        points[count] = offset;
+        checkpoints = points;
+        checkpointCount = count + 1;   // publish after the slot is written
+    }
+
+    /** Byte offset where the given line starts */
+    public synchronized long lineStart(int line) {
+        if (line == cachedLine) return cachedLineStart;
+
+        long pos;
+        int current;
+        if (cachedLine >= 0 && line > cachedLine && line - cachedLine < STRIDE) {
+            pos = cachedLineStart;
+            current = cachedLine;
+        } else {
+            int checkpoint = Math.min(line / STRIDE, checkpointCount - 1);
+            pos = checkpoints[checkpoint];
+            current = checkpoint * STRIDE;
+        }
+        while (current < line && pos < textEnd) {
+            if (isUnit(pos, '\n')) current++;
+            pos += unit;
+        }
+        cachedLine = line;
+        cachedLineStart = pos;
+        return pos;
+    }
+
+    /** Line number containing the given byte offset */
+    public int lineOf(long offset) {
+        int count = checkpointCount;
+        long[] points = checkpoints;
+        int index = Arrays.binarySearch(points, 0, count, offset);
+        int checkpoint = index >= 0 ? index : -index - 2;
+        int line = checkpoint * STRIDE;
+        for (long pos = points[checkpoint]; pos < offset; pos += unit) {
+            if (isUnit(pos, '\n')) line++;
+        }
+        return line;
+    }
+
+    /** Decodes one line (without its line break), cut at {@link #MAX_LINE_BYTES} */
+    public String line(int line) {
+        long start = lineStart(line);
+        long end = start;
+        long limit = Math.min(textEnd, start + MAX_LINE_BYTES);
+        while (end < limit && !isUnit(end, '\n')) end += unit;
+
+        boolean truncated = end == limit && end < textEnd && !isUnit(end, '\n');
+        if (end > start && isUnit(end - unit, '\r')) end -= unit;
+
+        String text = decode(start, end);
+        return truncated ? text + " \u2026" : text;
+    }
+
+    /**
+     * Finds the next occurrence of the query at or after the given byte offset by comparing encoded bytes,
+     * so nothing is decoded. That makes it case-sensitive. Returns the byte offset of the match or -1.
+     */
+    public long find(String query, long from, BooleanSupplier cancelled) {
+        byte[] needle = query.getBytes(charset);
+        if (needle.length == 0) return -1;
+
+        byte first = needle[0];
+        long last = textEnd - needle.length;
+        long start = Math.max(textStart, from);
+        start = textStart + (start - textStart + unit - 1) / unit * unit; // on a code unit
+        for (long pos = start; pos <= last; pos += unit) {
+            if ((pos & 0xFFFFF) == 0 && cancelled.getAsBoolean()) return -1;
+            if (byteAt(pos) != first) continue;
+
+            int i = 1;
+            while (i < needle.length && byteAt(pos + i) == needle[i]) i++;
+            if (i == needle.length) return pos;
+        }
+        return -1;
+    }
+
+    // Whether the code unit at pos is the ASCII char c
+    private boolean isUnit(long pos, char c) {
+        if (unit == 1) return byteAt(pos) == c;
+        return bigEndian ? byteAt(pos) == 0 && byteAt(pos + 1) == c : byteAt(pos) == c && byteAt(pos + 1) == 0;
+    }
+
+    private byte byteAt(long pos) {
+        return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & (SEGMENT_SIZE - 1)));
+    }
+
+    private String decode(long start, long end) {
+        int length = (int) (end - start);
+        ByteBuffer bytes;
+        int segment = (int) (start >>> SEGMENT_BITS);
+        if (segment == (int) ((end - 1) >>> SEGMENT_BITS) || length == 0) {
+            int offset = (int) (start & (SEGMENT_SIZE - 1));
+            bytes = segments[segment].slice(offset, length);
+        } else {
+            // line crosses a segment boundary, copy just this line
+            byte[] copy = new byte[length];
+            for (int i = 0; i < length; i++) copy[i] = byteAt(start + i);
+            bytes = ByteBuffer.wrap(copy);
+        }
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            return decoder.decode(bytes).toString();
+        } catch (java.nio.charset.CharacterCodingException e) {
+            return "";// cannot happen with REPLACE
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.example.javafxnotepad;
+
+import javafx.application.Platform;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The offsets of every match of a query in a document, for the find bar.
+ *
+ * The first scan runs on a background thread, one chunk of {@value #CHUNK} chars of a snapshot per task,
+ * and the FX thread appends each chunk's matches as it comes in, so the count grows while a big document
+ * is searched and the UI never waits. A chunk's region reaches {@value #LOOKAHEAD} chars past its end and
+ * uses transparent bounds, so a match may run into the next chunk; only a match that is found and hit the
+ * end of the region makes it grow. A match that would need more than the lookahead past its chunk to be
+ * found at all is missed, a task never scans much more than its chunk.
+ *
+ * Edits update the index in place: a query that can't match across a line break only has the edited lines
+ * searched again and the matches after them shifted, and an edit of a very long line drops the index from
+ * that line on. Any other query (a regex with \s, [^, (?, $ and the like, see Query#isLineLocal) drops the
+ * whole index on every edit, since a match anywhere may have looked at the edited text, and the document is
+ * searched again from the start in the background.
+ *
+ * FX thread only, apart from the scanning tasks which work on snapshots.
+ */
+public class MatchIndex {
+
+    private static final int CHUNK = 1 << 20;
+    private static final int LOOKAHEAD = 64 * 1024; // text past a chunk its matches may run into
+    private static final int MAX_LINE_RESCAN = 1 << 20; // longer edited lines go back to the background scan
+    private static final int MAX_MATCHES = Integer.getInteger("notepad.find.maxMatches", 1_000_000);
+
+    // one thread for all searches, an old search's chunk is simply dropped when it comes back
+    private static final ExecutorService SCANNER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "find-scan");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    /** What to look for. A literal query is compiled with Pattern.LITERAL. */
+    public record Query(String text, boolean regex, boolean matchCase) {
+        public Pattern compile() {
+            int flags = (regex ? 0 : Pattern.LITERAL) | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            return Pattern.compile(text, flags);
+        }
+
+        /** True if no match (and no failed attempt) can depend on the text of another line */
+        boolean isLineLocal() {
+            if (!regex) return text.indexOf('\n') < 0;
+            // anything that can match or look at a '\n': escapes, negated classes, flags and lookarounds, and
+            // $ which also matches before a line break that ends the document
+            for (String token : new String[]{"\n", "\\n", "\\r", "\\s", "\\W", "\\D", "\\R", "\\v", "\\h", "\\H",
+                    "\\p", "\\P", "\\x", "\\u", "\\0", "\\c", "\\X", "\\Z", "[^", "(?", "$"}) {
+                if (text.contains(token)) return false;
+            }
+            return true;
+        }
+    }
+
+    /** One background replace-all: [start, end) of the snapshot becomes text */
+    public record Replacement(int start, int end, String text, int count) {
+    }
+
+    private final PieceTable document;
+    private final Pattern pattern;
+    private final boolean lineLocal;
+    private final Runnable onChange;
+
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int size = 0;
+    private int scannedUpTo = 0;      // no match starting before this is missing; > length once complete
+    private boolean capped = false;   // stopped at MAX_MATCHES
+    private boolean scanning = false;
+    private volatile long generation = 0; // bumped by every edit, a chunk scanned before it is dropped
+    private volatile boolean closed = false;
+
+    /**
+     * Starts indexing document, which must be the live document the editor changes. onChange runs on the
+     * FX thread whenever matches came in or moved.
+     */
+    public MatchIndex(PieceTable document, Query query, Runnable onChange) {
+        this.document = document;
+        this.pattern = query.compile();
+        this.lineLocal = query.isLineLocal();
+        this.onChange = onChange;
+        scheduleScan();
+    }
+
+    public PieceTable document() {
+        return document;
+    }
+
+    public Pattern pattern() {
+        return pattern;
+    }
+
+    public int count() {
+        return size;
+    }
+
+    public boolean isComplete() {
+        return scannedUpTo > document.length() || capped;
+    }
+
+    public boolean isCapped() {
+        return capped;
+    }
+
+    /** Fraction of the document searched, 0..1 */
+    public double progress() {
+        return isComplete() ? 1.0 : (double) scannedUpTo / Math.max(1, document.length());
+    }
+
+    public int start(int match) {
+        return starts[match];
+    }
+
+    public int end(int match) {
+        return ends[match];
+    }
+
+    /** The first match starting at or after offset, -1 if there is none (yet) */
+    public int firstAtOrAfter(int offset) {
+        int i = lowerBound(offset);
+        return i < size ? i : -1;
+    }
+
+    /** The last match starting before offset, -1 if there is none */
+    public int lastBefore(int offset) {
+        return lowerBound(offset) - 1;
+    }
+
+    /** The match that is exactly [start, end), -1 if none */
+    public int indexOf(int start, int end) {
+        int i = lowerBound(start);
+        return i < size && starts[i] == start && ends[i] == end ? i : -1;
+    }
+
+    /** Stops scanning, the index is not used anymore */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * The document was edited: [start, removedEnd) was replaced by insertedLength chars. Called right after
+     * the edit, so the document already holds the new text.
+     */
+    public void edited(int start, int removedEnd, int insertedLength) {
+        if (closed) return;
+        generation++;
+        int delta = insertedLength - (removedEnd - start);
+        if (!lineLocal) {
+            truncate(0); // a match anywhere may have looked at the edited text
+            return;
+        }
+        int from = document.lineStart(document.lineOf(start));
+        int to = document.lineEnd(document.lineOf(start + insertedLength));
+        int oldTo = to - delta;
+        if (from >= scannedUpTo) {
+            scheduleScan(); // not searched yet, the scan gets there with the new text
+            return;
+        }
+        if (oldTo >= scannedUpTo || to - from > MAX_LINE_RESCAN || capped) {
+            truncate(from);
+            return;
+        }
+
+        // the edited lines are searched again, the matches after them just move
+        Found found = scan(pattern, document, from, to + 1, Integer.MAX_VALUE);
+        int first = lowerBound(from);
+        int last = lowerBound(oldTo + 1);
+        int newSize = size - (last - first) + found.size;
+        ensureCapacity(newSize);
+        System.arraycopy(starts, last, starts, first + found.size, size - last);
+        System.arraycopy(ends, last, ends, first + found.size, size - last);
+        System.arraycopy(found.starts, 0, starts, first, found.size);
+        System.arraycopy(found.ends, 0, ends, first, found.size);
+        for (int i = first + found.size; i < newSize; i++) {
+            starts[i] += delta;
+            ends[i] += delta;
+        }
+        size = newSize;
+        scannedUpTo += delta;
+        onChange.run();
+    }
+
+    /**
+     * Replaces every match of pattern in snapshot on a background thread and completes with one edit that
+     * covers them all, from the first match to the end of the last; null if nothing matched. A literal
+     * replacement is used as is, otherwise $1 and ${name} refer to groups like in Matcher.appendReplacement.
+     */
+    public static CompletableFuture<Replacement> replaceAll(PieceTable snapshot, Pattern pattern, String replacement,
+                                                           boolean literal) {
+        return CompletableFuture.supplyAsync(() -> {
+            Matcher matcher = pattern.matcher(snapshot);
+            StringBuilder text = new StringBuilder();
+            int first = -1;
+            int last = 0;
+            int count = 0;
+            while (matcher.find()) {
+                if (first < 0) {
+                    first = matcher.start();
+                    last = first;
+                }
+                text.append(snapshot.getText(last, matcher.start()));
+                text.append(literal ? replacement : expand(matcher, replacement));
+                last = matcher.end();
+                count++;
+            }
+            return first < 0 ? null : new Replacement(first, last, text.toString(), count);
+        }, SCANNER);
+    }
+
+    /** The replacement for the match [start, end) of text, or null if the pattern doesn't match exactly there */
+    public static String replacementFor(CharSequence text, Pattern pattern, int start, int end, String replacement,
+                                        boolean literal) {
+        Matcher matcher = pattern.matcher(text).useTransparentBounds(true).useAnchoringBounds(false);
+        matcher.region(start, text.length());
+        if (!matcher.lookingAt() || matcher.end() != end) return null;
+        return literal ? replacement : expand(matcher, replacement);
+    }
+
+    /**
+     * $n, ${name} and backslash escapes like Matcher.appendReplacement, but only the replacement itself:
+     * appendReplacement would also copy all the text before the match.
+     */
+    static String expand(Matcher matcher, String replacement) {
+        StringBuilder out = new StringBuilder();
+        int i = 0;
+        while (i < replacement.length()) {
+            char c = replacement.charAt(i++);
+            if (c == '\\') {
+                if (i == replacement.length()) throw new IllegalArgumentException("character to be escaped is missing");
+                out.append(replacement.charAt(i++));
+            } else if (c != '$') {
+                out.append(c);
+            } else if (i == replacement.length()) {
+                throw new IllegalArgumentException("Illegal group reference: group index is missing");
+            } else if (replacement.charAt(i) == '{') {
+                int close = replacement.indexOf('}', i);
+                if (close < 0) throw new IllegalArgumentException("named capturing group is missing trailing '}'");
+                String group = matcher.group(replacement.substring(i + 1, close));
+                if (group != null) out.append(group);
+                i = close + 1;
+            } else {
+                // the first digit always counts, more digits only while they name an existing group
+                if (!Character.isDigit(replacement.charAt(i))) throw new IllegalArgumentException("Illegal group reference");
+                int group = replacement.charAt(i++) - '0';
+                while (i < replacement.length() && Character.isDigit(replacement.charAt(i))) {
+                    int next = group * 10 + (replacement.charAt(i) - '0');
+                    if (next > matcher.groupCount()) break;
+                    group = next;
+                    i++;
+                }
+                String text = matcher.group(group);
+                if (text != null) out.append(text);
+            }
+        }
+        return out.toString();
+    }
+
+    // Drops the matches from offset on, the background scan finds them again in the new text
+    private void truncate(int offset) {
+        size = lowerBound(offset);
+        scannedUpTo = Math.min(scannedUpTo, offset);
+        capped = false;
+        scheduleScan();
+        onChange.run();
+    }
+
+    private void scheduleScan() {
+        if (closed || scanning || isComplete()) return;
+        scanning = true;
+        long scanGeneration = generation;
+        PieceTable snapshot = document.snapshot();
+        int from = scannedUpTo;
+        int limit = (int) Math.min(snapshot.length() + 1L, (long) from + CHUNK);
+        int room = MAX_MATCHES - size;
+        SCANNER.execute(() -> {
+            // closed or edited while queued: don't search text nobody wants anymore
+            Found found = closed || scanGeneration != generation ? null : scan(pattern, snapshot, from, limit, room);
+            Platform.runLater(() -> chunkScanned(scanGeneration, found));
+        });
+    }
+
+    private void chunkScanned(long scanGeneration, Found found) {
+        scanning = false;
+        if (closed) return;
+        if (scanGeneration != generation || found == null) {
+            scheduleScan(); // edited meanwhile, search the new text from where the index ends now
+            return;
+        }
+        ensureCapacity(size + found.size);
+        System.arraycopy(found.starts, 0, starts, size, found.size);
+        System.arraycopy(found.ends, 0, ends, size, found.size);
+        size += found.size;
+        scannedUpTo = found.next;
+        capped = size >= MAX_MATCHES;
+        scheduleScan();
+        onChange.run();
+    }
+
+    private record Found(int[] starts, int[] ends, int size, int next) {
+    }
+
+    /**
+     * The matches that start in [from, limit), at most maxMatches of them, and where the next search
+     * should start. limit may be length + 1 to include an empty match at the very end.
+     */
+    private static Found scan(Pattern pattern, CharSequence text, int from, int limit, int maxMatches) {
+        int length = text.length();
+        Matcher matcher = pattern.matcher(text).useTransparentBounds(true).useAnchoringBounds(false);
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int size = 0;
+        int pos = from;
+        int regionEnd = (int) Math.min(length, (long) limit + LOOKAHEAD);
+        while (pos < limit && size < maxMatches) {
+            regionEnd = Math.max(regionEnd, Math.min(length, pos));
+            matcher.region(pos, regionEnd);
+            if (!matcher.find()) {
+                // a failed find always hit the end; the next chunk starts at limit with its own lookahead
+                pos = limit;
+                break;
+            }
+            if (matcher.start() >= limit) {
+                pos = matcher.start();
+                break;
+            }
+            if (matcher.hitEnd() && regionEnd < length) {
+                // a match that more text could make longer: grow the region until it ends inside it
+                regionEnd = (int) Math.min(length, regionEnd + (long) Math.max(LOOKAHEAD, regionEnd - pos));
+                continue;
+            }
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = matcher.start();
+            ends[size] = matcher.end();
+            size++;
+            pos = matcher.end() == matcher.start() ? matcher.end() + 1 : matcher.end();
+        }
+        return new Found(starts, ends, size, pos);
+    }
+
+    private int lowerBound(int offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < offset) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= starts.length) return;
+        int newLength = Math.max(capacity, starts.length * 2);
+        starts = Arrays.copyOf(starts, newLength);
+        ends = Arrays.copyOf(ends, newLength);
+    }
+}
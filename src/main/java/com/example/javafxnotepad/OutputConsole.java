@@ -0,0 +1,160 @@
+package com.example.javafxnotepad;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.ListView;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The output pane. A TextArea lays out and keeps all of its text, so a program printing in a loop
+ * ran the heap out and stalled the layout. Here the output lives in a {@link LineRingBuffer} that
+ * keeps only the last lines, and the ListView only creates cells for the lines on screen.
+ *
+ * append() can be called from any thread; the view catches up at most once per pulse, so it costs
+ * the same whether a program prints ten lines or ten million.
+ */
+public class OutputConsole extends ListView<String> {
+
+    private static final int MAX_LINES = Integer.getInteger("notepad.output.maxLines", 100_000);
+    private static final long MAX_CHARS = Long.getLong("notepad.output.maxMB", 8) * 1024 * 1024 / 2; // 2 bytes a char
+
+    private static final KeyCombination COPY_KEYS = new KeyCodeCombination(KeyCode.C, KeyCombination.SHORTCUT_DOWN);
+
+    private final LineRingBuffer buffer = new LineRingBuffer(MAX_LINES, MAX_CHARS);
+    private final ObservableList<String> lines = FXCollections.observableArrayList();
+    private final AtomicBoolean syncQueued = new AtomicBoolean();
+
+    // What the list shows: lines [shownFirstSeq, shownSeq) of the buffer, plus the header and partial line
+    private long shownFirstSeq = 0;
+    private long shownSeq = 0;
+    private boolean headerShown = false;
+    private boolean partialShown = false;
+
+    public OutputConsole() {
+        super();
+        setItems(lines);
+        getStyleClass().add("output-console");
+        setFixedCellSize(20); // lets the ListView skip measuring cells
+        getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        setPlaceholder(new javafx.scene.control.Label(""));
+
+        MenuItem copy = new MenuItem("Copy");
+        copy.setOnAction(e -> copySelection());
+        MenuItem copyAll = new MenuItem("Copy All");
+        copyAll.setOnAction(e -> copyText(buffer.text()));
+        setContextMenu(new ContextMenu(copy, copyAll));
+        setOnKeyPressed(event -> {
+            if (COPY_KEYS.match(event)) copySelection();
+        });
+    }
+
+    /** Any thread */
+    public void append(CharSequence text) {
+        buffer.append(text);
+        if (syncQueued.compareAndSet(false, true)) {
+            Platform.runLater(this::sync);
+        }
+    }
+
+    /** FX thread, like the TextArea method it replaces */
+    public void setText(String text) {
+        clear();
+        append(text);
+    }
+
+    /** FX thread. Also closes the spill file of the last run. */
+    public void clear() {
+        buffer.clear();
+        lines.clear();
+        shownFirstSeq = 0;
+        shownSeq = 0;
+        headerShown = false;
+        partialShown = false;
+    }
+
+    /** Also write the complete output to file, for when more is printed than the console keeps */
+    public void spillTo(Path file) throws IOException {
+        buffer.spillTo(file);
+    }
+
+    public void closeSpill() {
+        buffer.closeSpill();
+    }
+
+    private void sync() {
+        syncQueued.set(false);
+        LineRingBuffer.Slice slice = buffer.since(shownSeq);
+        boolean follow = isScrolledToEnd();
+
+        if (partialShown) {
+            lines.remove(lines.size() - 1);
+            partialShown = false;
+        }
+
+        // lines that fell out of the buffer leave the list too
+        int header = headerShown ? 1 : 0;
+        long keepFrom = Math.max(shownFirstSeq, slice.firstSeq());
+        int gone = (int) Math.min(keepFrom - shownFirstSeq, shownSeq - shownFirstSeq);
+        if (gone > 0) lines.remove(header, header + gone);
+        shownFirstSeq = keepFrom;
+
+        if (slice.dropped() > 0) {
+            String text = String.format("[... %,d earlier lines dropped%s]", slice.dropped(),
+                    slice.spillFile() == null ? "" : ", full output in " + slice.spillFile());
+            if (headerShown) {
+                lines.set(0, text);
+            } else {
+                lines.add(0, text);
+                headerShown = true;
+            }
+        }
+
+        lines.addAll(slice.lines());
+        shownSeq = slice.nextSeq();
+        if (!slice.partial().isEmpty()) {
+            lines.add(slice.partial());
+            partialShown = true;
+        }
+
+        if (follow && !lines.isEmpty()) scrollTo(lines.size() - 1);
+    }
+
+    // Keep following new output, unless the user scrolled up to read something
+    private boolean isScrolledToEnd() {
+        for (Node node : lookupAll(".scroll-bar")) {
+            if (node instanceof ScrollBar bar && bar.getOrientation() == Orientation.VERTICAL && bar.isVisible()) {
+                return bar.getValue() >= bar.getMax() - 0.001;
+            }
+        }
+        return true;
+    }
+
+    private void copySelection() {
+        StringBuilder text = new StringBuilder();
+        for (String line : getSelectionModel().getSelectedItems()) {
+            text.append(line).append('\n');
+        }
+        if (!text.isEmpty()) copyText(text.toString());
+    }
+
+    private static void copyText(String text) {
+        ClipboardContent content = new ClipboardContent();
+        content.putString(text);
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+}
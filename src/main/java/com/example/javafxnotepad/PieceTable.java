@@ -0,0 +1,507 @@
+package com.example.javafxnotepad;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Piece-table document shared by the plain TextArea and the CodeArea.
+ *
+ * The text is never stored as one big String. It lives in two buffers: the original text the file was
+ * loaded with (never modified) and an append-only add buffer that receives everything typed. The document
+ * is the sequence of pieces (slices of those two buffers) kept in a treap ordered by document offset, so
+ * insert/delete cost O(log n) and never copy the existing text.
+ *
+ * Nodes are immutable, so a snapshot is just the current root: background work (save, suggestions) can
+ * read a snapshot while the FX thread keeps editing.
+ *
+ * Both buffers also keep the sorted positions of their '\n' chars, and every node knows how many line
+ * feeds its subtree holds (counted by binary search, never by scanning text), so line number <-> offset
+ * lookups are O(log n) as well.
+ */
+public class PieceTable implements CharSequence {
+
+    private final CharSequence original;
+    private final LineFeeds originalLineFeeds;
+    private final AddBuffer added;
+    private Node root;
+
+    // charAt() is usually called sequentially, so remember the last piece we landed in
+    private Node cachedNode;
+    private int cachedNodeStart;
+
+    public PieceTable() {
+        this("");
+    }
+
+    public PieceTable(CharSequence original) {
+        this.original = original;
+        this.originalLineFeeds = new LineFeeds();
+        for (int i = 0, n = original.length(); i < n; i++) {
+            if (original.charAt(i) == '\n') originalLineFeeds.add(i);
+        }
+        this.added = new AddBuffer();
+        this.root = original.length() == 0 ? null : leaf(false, 0, original.length());
+    }
+
+    private PieceTable(PieceTable source) {
+        this.original = source.original;
+        this.originalLineFeeds = source.originalLineFeeds;
+        this.added = source.added;
+        this.root = source.root;
+    }
+
+    /** Cheap read-only view of the current text, safe to hand to another thread */
+    public PieceTable snapshot() {
+        return new PieceTable(this);
+    }
+
+    /** True if no edit has happened since the given snapshot was taken from this document */
+    public boolean isUnchangedSince(PieceTable snapshot) {
+        return snapshot != null && snapshot.original == original && snapshot.root == root;
+    }
+
+    public void insert(int offset, CharSequence text) {
+        checkRange(offset, offset);
+        if (text.isEmpty()) return;
+
+        int start = added.append(text);
+        Node[] parts = split(root, offset);
+
+        // Typing appends to the add buffer right where the previous piece ended, so just grow that piece
+        Node left = extendLast(parts[0], start, text.length());
+        if (left == null) {
+            left = merge(parts[0], leaf(true, start, text.length()));
+        }
+        setRoot(merge(left, parts[1]));
+    }
+
+    public void delete(int start, int end) {
+        checkRange(start, end);
+        if (start == end) return;
+
+        Node[] head = split(root, start);
+        Node[] tail = split(head[1], end - start);
+        setRoot(merge(head[0], tail[1]));
+    }
+
+    public void replace(int start, int end, CharSequence text) {
+        delete(start, end);
+        insert(start, text);
+    }
+
+    @Override
+    public int length() {
+        return size(root);
+    }
+
+    /** Number of lines, an empty document has one */
+    public int lineCount() {
+        return lines(root) + 1;
+    }
+
+    /** Offset of the first char of the given line (0-based) */
+    public int lineStart(int line) {
+        if (line < 0 || line >= lineCount()) {
+            throw new IndexOutOfBoundsException("line " + line + ", line count " + lineCount());
+        }
+        return line == 0 ? 0 : lineFeedOffset(line) + 1;
+    }
+
+    /** Offset just past the last char of the line, not counting its '\n' */
+    public int lineEnd(int line) {
+        return line + 1 < lineCount() ? lineStart(line + 1) - 1 : length();
+    }
+
+    /** Line (0-based) that contains the given offset; length() belongs to the last line */
+    public int lineOf(int offset) {
+        checkRange(offset, offset);
+        int line = 0;
+        Node node = root;
+        int nodeStart = 0;
+        while (node != null) {
+            int pieceStart = nodeStart + size(node.left);
+            if (offset < pieceStart) {
+                node = node.left;
+            } else if (offset < pieceStart + node.length) {
+                LineFeeds feeds = lineFeeds(node);
+                return line + lines(node.left) + feeds.count(node.start, node.start + offset - pieceStart);
+            } else {
+                line += lines(node.left) + node.pieceLines;
+                nodeStart = pieceStart + node.length;
+                node = node.right;
+            }
+        }
+        return line;
+    }
+
+    // offset of the k-th '\n' of the document, k >= 1
+    private int lineFeedOffset(int k) {
+        Node node = root;
+        int nodeStart = 0;
+        while (true) {
+            int leftLines = lines(node.left);
+            if (k <= leftLines) {
+                node = node.left;
+            } else if (k <= leftLines + node.pieceLines) {
+                int pos = lineFeeds(node).nth(node.start, k - leftLines);
+                return nodeStart + size(node.left) + pos - node.start;
+            } else {
+                k -= leftLines + node.pieceLines;
+                nodeStart += size(node.left) + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    /** Scans only until the first non-whitespace char, unlike toString().isBlank() */
+    public boolean isBlank() {
+        for (int i = 0, n = length(); i < n; i++) {
+            if (!Character.isWhitespace(charAt(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+        }
+        if (cachedNode != null && index >= cachedNodeStart && index < cachedNodeStart + cachedNode.length) {
+            return pieceChar(cachedNode, index - cachedNodeStart);
+        }
+
+        Node node = root;
+        int nodeStart = 0;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < nodeStart + leftSize) {
+                node = node.left;
+            } else if (index < nodeStart + leftSize + node.length) {
+                cachedNode = node;
+                cachedNodeStart = nodeStart + leftSize;
+                return pieceChar(node, index - cachedNodeStart);
+            } else {
+                nodeStart += leftSize + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    @Override
+    public String subSequence(int start, int end) {
+        return getText(start, end);
+    }
+
+    public String getText(int start, int end) {
+        checkRange(start, end);
+        StringBuilder sb = new StringBuilder(end - start);
+        appendRange(root, 0, start, end, sb);
+        return sb.toString();
+    }
+
+    /** Copies [start, end) into dst like String.getChars, so a writer can work through the text in fixed-size chunks */
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        checkRange(start, end);
+        copyRange(root, 0, start, end, dst, dstBegin - start);
+    }
+
+    /** Streams the document piece by piece, without building the whole text first */
+    public void writeTo(Appendable out) throws IOException {
+        writeRange(root, out);
+    }
+
+    @Override
+    public String toString() {
+        return getText(0, length());
+    }
+
+    private void setRoot(Node newRoot) {
+        root = newRoot;
+        cachedNode = null;
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end < start || end > length()) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length());
+        }
+    }
+
+    private char pieceChar(Node piece, int offsetInPiece) {
+        int i = piece.start + offsetInPiece;
+        return piece.added ? added.charAt(i) : original.charAt(i);
+    }
+
+    private void appendPiece(Node piece, int from, int to, StringBuilder sb) {
+        if (piece.added) {
+            added.appendTo(sb, piece.start + from, piece.start + to);
+        } else {
+            sb.append(original, piece.start + from, piece.start + to);
+        }
+    }
+
+    // nodeStart = document offset of the first char in this subtree
+    private void appendRange(Node node, int nodeStart, int start, int end, StringBuilder sb) {
+        if (node == null || start >= end) return;
+        int pieceStart = nodeStart + size(node.left);
+        int pieceEnd = pieceStart + node.length;
+
+        if (start < pieceStart) {
+            appendRange(node.left, nodeStart, start, Math.min(end, pieceStart), sb);
+        }
+        if (start < pieceEnd && end > pieceStart) {
+            appendPiece(node, Math.max(start, pieceStart) - pieceStart, Math.min(end, pieceEnd) - pieceStart, sb);
+        }
+        if (end > pieceEnd) {
+            appendRange(node.right, pieceEnd, Math.max(start, pieceEnd), end, sb);
+        }
+    }
+
+    // dstShift = where document offset 0 would land in dst
+    private void copyRange(Node node, int nodeStart, int start, int end, char[] dst, int dstShift) {
+        if (node == null || start >= end) return;
+        int pieceStart = nodeStart + size(node.left);
+        int pieceEnd = pieceStart + node.length;
+
+        if (start < pieceStart) {
+            copyRange(node.left, nodeStart, start, Math.min(end, pieceStart), dst, dstShift);
+        }
+        if (start < pieceEnd && end > pieceStart) {
+            int from = Math.max(start, pieceStart);
+            int to = Math.min(end, pieceEnd);
+            int bufferStart = node.start + from - pieceStart;
+            int count = to - from;
+            if (node.added) {
+                added.getChars(bufferStart, bufferStart + count, dst, from + dstShift);
+            } else if (original instanceof String text) {
+                text.getChars(bufferStart, bufferStart + count, dst, from + dstShift);
+            } else if (original instanceof CharBuffer chars) {
+                chars.get(bufferStart, dst, from + dstShift, count); // e.g. a mapped spill file, see DocumentTab
+            } else {
+                for (int i = 0; i < count; i++) dst[from + dstShift + i] = original.charAt(bufferStart + i);
+            }
+        }
+        if (end > pieceEnd) {
+            copyRange(node.right, pieceEnd, Math.max(start, pieceEnd), end, dst, dstShift);
+        }
+    }
+
+    private void writeRange(Node node, Appendable out) throws IOException {
+        if (node == null) return;
+        writeRange(node.left, out);
+        if (node.added) {
+            StringBuilder sb = new StringBuilder(node.length);
+            added.appendTo(sb, node.start, node.start + node.length);
+            out.append(sb);
+        } else {
+            out.append(original, node.start, node.start + node.length);
+        }
+        writeRange(node.right, out);
+    }
+
+    // ---------------------------------------------------------------- treap
+
+    private static final class Node {
+        final boolean added;   // which buffer the piece points into
+        final int start;       // offset of the piece inside its buffer
+        final int length;
+        final int priority;
+        final Node left;
+        final Node right;
+        final int size;        // chars in the whole subtree
+        final int pieceLines;  // '\n' chars in this piece
+        final int lines;       // '\n' chars in the whole subtree
+
+        Node(boolean added, int start, int length, int pieceLines, int priority, Node left, Node right) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.pieceLines = pieceLines;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + length + size(right);
+            this.lines = lines(left) + pieceLines + lines(right);
+        }
+
+        Node with(Node left, Node right) {
+            return new Node(added, start, length, pieceLines, priority, left, right);
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int lines(Node node) {
+        return node == null ? 0 : node.lines;
+    }
+
+    private LineFeeds lineFeeds(Node piece) {
+        return piece.added ? added.lineFeeds : originalLineFeeds;
+    }
+
+    private Node leaf(boolean added, int start, int length) {
+        LineFeeds feeds = added ? this.added.lineFeeds : originalLineFeeds;
+        return new Node(added, start, length, feeds.count(start, start + length), ThreadLocalRandom.current().nextInt(), null, null);
+    }
+
+    /** Concatenates two trees: every char of a comes before every char of b */
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            return a.with(a.left, merge(a.right, b));
+        }
+        return b.with(merge(a, b.left), b.right);
+    }
+
+    /** Splits into [0, offset) and [offset, size), cutting a piece in two if the offset falls inside it */
+    private Node[] split(Node node, int offset) {
+        if (node == null) return new Node[2];
+
+        int leftSize = size(node.left);
+        if (offset <= leftSize) {
+            Node[] parts = split(node.left, offset);
+            return new Node[]{parts[0], node.with(parts[1], node.right)};
+        }
+        int pieceEnd = leftSize + node.length;
+        if (offset >= pieceEnd) {
+            Node[] parts = split(node.right, offset - pieceEnd);
+            return new Node[]{node.with(node.left, parts[0]), parts[1]};
+        }
+
+        // Fresh priorities for both halves, merged back in so the heap order (and the balance) still holds
+        int cut = offset - leftSize;
+        Node head = leaf(node.added, node.start, cut);
+        Node tail = leaf(node.added, node.start + cut, node.length - cut);
+        return new Node[]{merge(node.left, head), merge(tail, node.right)};
+    }
+
+    /** Grows the last piece of the tree if it is an add-buffer piece ending exactly at addStart, else null */
+    private Node extendLast(Node node, int addStart, int length) {
+        if (node == null) return null;
+        if (node.right != null) {
+            Node right = extendLast(node.right, addStart, length);
+            return right == null ? null : node.with(node.left, right);
+        }
+        if (node.added && node.start + node.length == addStart) {
+            int pieceLines = node.pieceLines + added.lineFeeds.count(addStart, addStart + length);
+            return new Node(true, node.start, node.length + length, pieceLines, node.priority, node.left, null);
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------- add buffer
+
+    /**
+     * Append-only char storage in fixed-size blocks. Blocks are never reallocated, so a snapshot reading
+     * old offsets on another thread is not disturbed by the FX thread appending new text.
+     */
+    private static final class AddBuffer {
+        private static final int BLOCK_BITS = 16;
+        private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+        private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+        private volatile char[][] blocks = new char[8][];
+        private volatile int length;
+        final LineFeeds lineFeeds = new LineFeeds();
+
+        synchronized int append(CharSequence text) {
+            int start = length;
+            int pos = start;
+            char[][] b = blocks;
+            for (int i = 0, n = text.length(); i < n; ) {
+                int block = pos >>> BLOCK_BITS;
+                if (block == b.length) {
+                    b = java.util.Arrays.copyOf(b, b.length * 2);
+                }
+                if (b[block] == null) {
+                    b[block] = new char[BLOCK_SIZE];
+                }
+                int offset = pos & BLOCK_MASK;
+                int count = Math.min(n - i, BLOCK_SIZE - offset);
+                for (int k = 0; k < count; k++) {
+                    char c = text.charAt(i + k);
+                    b[block][offset + k] = c;
+                    if (c == '\n') lineFeeds.add(pos + k);
+                }
+                i += count;
+                pos += count;
+            }
+            blocks = b;
+            length = pos;   // publish after the chars are written
+            return start;
+        }
+
+        char charAt(int index) {
+            return blocks[index >>> BLOCK_BITS][index & BLOCK_MASK];
+        }
+
+        void getChars(int start, int end, char[] dst, int dstBegin) {
+            char[][] b = blocks;
+            while (start < end) {
+                int offset = start & BLOCK_MASK;
+                int count = Math.min(end - start, BLOCK_SIZE - offset);
+                System.arraycopy(b[start >>> BLOCK_BITS], offset, dst, dstBegin, count);
+                start += count;
+                dstBegin += count;
+            }
+        }
+
+        void appendTo(StringBuilder sb, int start, int end) {
+            char[][] b = blocks;
+            while (start < end) {
+                int offset = start & BLOCK_MASK;
+                int count = Math.min(end - start, BLOCK_SIZE - offset);
+                sb.append(b[start >>> BLOCK_BITS], offset, count);
+                start += count;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- line feed index
+
+    /**
+     * Sorted positions of the '\n' chars in one buffer. Append-only like the add buffer: a snapshot on
+     * another thread only ever looks at positions that were published before it was taken.
+     */
+    private static final class LineFeeds {
+        private volatile int[] positions = new int[16];
+        private volatile int count;
+
+        synchronized void add(int position) {
+            int[] p = positions;
+            if (count == p.length) {
+                p = java.util.Arrays.copyOf(p, p.length * 2);
+            }
+            p[count] = position;
+            positions = p;
+            count++;   // publish after the position is written
+        }
+
+        /** Line feeds in [from, to) of the buffer */
+        int count(int from, int to) {
+            int n = count;
+            int[] p = positions;
+            return lowerBound(p, n, to) - lowerBound(p, n, from);
+        }
+
+        /** Buffer position of the k-th line feed at or after from, k >= 1 */
+        int nth(int from, int k) {
+            int n = count;
+            int[] p = positions;
+            return p[lowerBound(p, n, from) + k - 1];
+        }
+
+        private static int lowerBound(int[] p, int n, int value) {
+            int lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (p[mid] < value) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+}
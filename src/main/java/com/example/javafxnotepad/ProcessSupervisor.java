@@ -0,0 +1,372 @@
+package com.example.javafxnotepad;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the processes of one run and holds them to its {@link Limits}: wall-clock time, CPU time
+ * summed over the process tree, resident memory of the tree, number of processes and output size.
+ * The first limit broken stops the run.
+ *
+ * Every process the run starts is remembered, not just the one CodeRunner started: descendants are
+ * looked up every check, and on Linux each step runs in its own session (setsid), so children that
+ * were orphaned between two checks are still found by their session id. When a step's process exits,
+ * whatever it left running is killed, and so is everything at the end of the run, on Stop and on exit.
+ *
+ * The same samples make the run's {@link CodeRunner.Profile}: CPU time and peak resident memory
+ * of the last step, the program. Samples come every 20 ms for the first seconds of a step, so short
+ * programs get measured too, then with the checks.
+ *
+ * Memory is only measured on Linux (/proc). An in-process run (CodeRunner.runTask) gets the time and
+ * output limits only: there is no process to measure or kill, Stop interrupts and then gives up on it.
+ */
+public class ProcessSupervisor {
+
+    /**
+     * 0 turns a limit off. CPU and memory can only be held to in a process of its own, so with either
+     * one on, code that could run in the editor's JVM must run as a process, see {@link #allowInProcess}.
+     */
+    public record Limits(long timeoutMs, long cpuMs, long memoryBytes, int maxProcesses, long maxOutputChars) {
+        public static Limits fromProperties() {
+            return new Limits(
+                    TimeUnit.SECONDS.toMillis(Long.getLong("notepad.run.timeoutSeconds", 600)),
+                    TimeUnit.SECONDS.toMillis(Long.getLong("notepad.run.cpuSeconds", 300)),
+                    Long.getLong("notepad.run.maxMemoryMB", 2048) * 1024 * 1024,
+                    Integer.getInteger("notepad.run.maxProcesses", 256),
+                    Long.getLong("notepad.run.maxOutputMB", 256) * 1024 * 1024 / 2); // 2 bytes a char
+        }
+
+        /** True if every limit that is on also holds for a run inside the editor's JVM */
+        public boolean allowInProcess() {
+            return cpuMs == 0 && memoryBytes == 0;
+        }
+    }
+
+    private static final long CHECK_EVERY_MS = 200;
+    private static final long SAMPLE_EVERY_MS = 20;
+    private static final long FAST_SAMPLING_MS = 2000; // per step, after that the checks sample
+    private static final int REAP_ROUNDS = 20; // a fork bomb forks while we kill
+    private static final boolean LINUX = System.getProperty("os.name").toLowerCase().contains("linux")
+            && Files.isDirectory(Path.of("/proc/self"));
+    private static final String SETSID = LINUX ? findSetsid() : null;
+
+    private final Limits limits;
+    // one thread for all supervisors: the test runner has one per case
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "run-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Run run; // the current or last run
+
+    public ProcessSupervisor(Limits limits) {
+        this.limits = limits;
+        this.run = new Run(null);
+    }
+
+    /**
+     * Runs the command in a session of its own where that is possible (Linux with setsid), so the
+     * whole tree can be found again. setsid execs in place, the pid stays the same.
+     */
+    public static ProcessBuilder isolate(ProcessBuilder builder) {
+        List<String> command = builder.command();
+        if (SETSID != null && !command.isEmpty() && !command.get(0).equals(SETSID)) {
+            List<String> isolated = new ArrayList<>(command); // the command may be immutable
+            isolated.add(0, SETSID);
+            builder.command(isolated);
+        }
+        return builder;
+    }
+
+    /**
+     * A run starts. stopRun is called (on the watchdog thread) when it breaks a limit, null if reaping
+     * its processes is all there is to do.
+     */
+    public synchronized void begin(Runnable stopRun) {
+        Run next = new Run(stopRun);
+        run = next;
+        next.checks = watchdog.scheduleWithFixedDelay(next::check, CHECK_EVERY_MS, CHECK_EVERY_MS, TimeUnit.MILLISECONDS);
+        next.samples = watchdog.scheduleWithFixedDelay(next::fastSample, SAMPLE_EVERY_MS, SAMPLE_EVERY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** A step of the run started */
+    public void watch(Process process) {
+        watch(process, false);
+    }
+
+    /**
+     * A step of the run started. pooled means the process was started before it (a warm worker): the CPU
+     * time it has used so far is left out, and so is its kernel peak (VmHWM), which may be its warm-up's.
+     * The request is already on its way, so the baseline may take a millisecond or so of the program.
+     */
+    public void watch(Process process, boolean pooled) {
+        Run current = run;
+        if (pooled) {
+            long cpuSoFar = process.info().totalCpuDuration().map(Duration::toMillis).orElse(0L);
+            current.cpuMillis.put(process.pid(), cpuSoFar);
+            current.cpuInherited += cpuSoFar;
+            current.pooled.add(process.pid());
+        }
+        current.cpuBeforeStep = current.cpuTotal(); // the profile is the last step's
+        current.peakMemory = 0;
+        current.stepStarted = System.currentTimeMillis();
+        current.tree.put(process.pid(), process.toHandle());
+        if (SETSID != null) current.sessions.add(process.pid());
+        current.step = process.toHandle();
+    }
+
+    /** Measure the current step now, e.g. right before it exits */
+    public void sample() {
+        run.sample();
+    }
+
+    /** The current run's profile, with the step times CodeRunner measured */
+    public CodeRunner.Profile profile(long compileMillis, long runMillis) {
+        Run current = run;
+        long cpu = current.cpuMillis.isEmpty() ? -1 : Math.max(0, current.cpuTotal() - current.cpuBeforeStep);
+        long memory = LINUX && current.peakMemory > 0 ? current.peakMemory : -1;
+        return new CodeRunner.Profile(compileMillis, runMillis, cpu, memory);
+    }
+
+    /** Counts output; false once the run printed more than it may, the rest is not shown */
+    public boolean output(int chars) {
+        if (limits.maxOutputChars() <= 0) return true;
+        Run current = run;
+        if (current.outputChars.addAndGet(chars) <= limits.maxOutputChars()) return true;
+        current.exceed("output limit of " + limits.maxOutputChars() * 2 / (1024 * 1024) + " MB");
+        return false;
+    }
+
+    /** The limit that stopped the run, null if none did */
+    public String exceeded() {
+        return run.exceeded;
+    }
+
+    /** The run is over: stop watching and kill whatever is left of it */
+    public synchronized void end() {
+        Run current = run;
+        current.ended = true;
+        if (current.checks != null) current.checks.cancel(false);
+        if (current.samples != null) current.samples.cancel(false);
+        current.reap();
+    }
+
+    /** Kills every process of the current run that is still alive. Any thread. */
+    public void reap() {
+        run.reap();
+    }
+
+    // One run's processes. A check or kill still going when the next run starts only sees its own run.
+    private class Run {
+        final Map<Long, ProcessHandle> tree = new ConcurrentHashMap<>(); // every process seen, by pid
+        final Map<Long, Long> cpuMillis = new ConcurrentHashMap<>();     // last CPU time seen, the dead count too
+        final Set<Long> sessions = ConcurrentHashMap.newKeySet();        // Linux: one per step
+        final Set<Long> pooled = ConcurrentHashMap.newKeySet();          // started before the run, see watch()
+        final AtomicLong outputChars = new AtomicLong();
+        final Runnable stopRun;
+        final long deadline;
+        volatile ProcessHandle step;   // the process CodeRunner is waiting for
+        volatile String exceeded;      // the limit that stopped the run
+        volatile boolean ended;
+        volatile long cpuBeforeStep;
+        volatile long cpuInherited;    // used by pooled processes before they were handed over
+        volatile long stepStarted;
+        volatile long memoryNow;    // resident memory of the tree at the last sample
+        volatile long peakMemory;   // of the current step
+        ScheduledFuture<?> checks;
+        ScheduledFuture<?> samples;
+
+        Run(Runnable stopRun) {
+            this.stopRun = stopRun;
+            this.deadline = limits.timeoutMs() > 0 ? System.currentTimeMillis() + limits.timeoutMs() : Long.MAX_VALUE;
+        }
+
+        void reap() {
+            for (int round = 0; round < REAP_ROUNDS; round++) {
+                collect();
+                boolean anyAlive = false;
+                for (ProcessHandle process : tree.values()) {
+                    if (isAlive(process)) {
+                        process.destroyForcibly();
+                        anyAlive = true;
+                    }
+                }
+                if (!anyAlive) return;
+                sleep(10);
+            }
+            System.out.println("Run supervisor: processes still alive after " + REAP_ROUNDS + " rounds of killing");
+        }
+
+        void check() {
+            if (ended) return;
+            try {
+                collect();
+
+                int alive = sample();
+                long cpu = cpuTotal() - cpuInherited;
+                long memory = memoryNow;
+
+                if (System.currentTimeMillis() > deadline) {
+                    exceed("time limit of " + limits.timeoutMs() / 1000 + " s");
+                } else if (limits.cpuMs() > 0 && cpu > limits.cpuMs()) {
+                    exceed("CPU time limit of " + limits.cpuMs() / 1000 + " s");
+                } else if (limits.memoryBytes() > 0 && memory > limits.memoryBytes()) {
+                    exceed("memory limit of " + limits.memoryBytes() / (1024 * 1024) + " MB");
+                } else if (limits.maxProcesses() > 0 && alive > limits.maxProcesses()) {
+                    exceed("limit of " + limits.maxProcesses() + " processes");
+                }
+
+                // The step is done but something it started still runs, and would keep its output pipe open
+                ProcessHandle current = step;
+                if (current != null && !isAlive(current) && alive > 0 && !ended) {
+                    System.out.println("Run supervisor: killing " + alive + " process(es) left behind by pid " + current.pid());
+                    reap();
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Run supervisor check failed: " + e); // keep checking
+            }
+        }
+
+        void fastSample() {
+            if (!ended && step != null && System.currentTimeMillis() - stepStarted < FAST_SAMPLING_MS) sample();
+        }
+
+        // CPU time and memory of every live process; returns how many there are
+        synchronized int sample() {
+            int alive = 0;
+            long memory = 0;
+            long peak = 0;
+            for (ProcessHandle process : tree.values()) {
+                if (!process.isAlive()) continue;
+                process.info().totalCpuDuration().map(Duration::toMillis)
+                        .ifPresent(ms -> cpuMillis.put(process.pid(), ms));
+                if (!isAlive(process)) continue; // a zombie: its CPU time is final, it holds no memory
+                alive++;
+                long[] rssAndPeak = residentBytes(process.pid());
+                memory += rssAndPeak[0];
+                // the kernel's own peak catches what fell between samples, but a pooled one's may be its warm-up's
+                if (!pooled.contains(process.pid())) peak = Math.max(peak, rssAndPeak[1]);
+            }
+            memoryNow = memory;
+            peakMemory = Math.max(peakMemory, Math.max(memory, peak));
+            return alive;
+        }
+
+        long cpuTotal() {
+            long cpu = 0;
+            for (long ms : cpuMillis.values()) cpu += ms;
+            return cpu;
+        }
+
+        void exceed(String limit) {
+            if (exceeded != null || ended) return;
+            exceeded = limit;
+            System.out.println("Run supervisor: " + limit + " exceeded, stopping the run");
+            if (stopRun != null) stopRun.run();
+            reap();
+        }
+
+        // Adds the descendants of what we know, and on Linux everything in our sessions (orphans too)
+        void collect() {
+            for (ProcessHandle process : List.copyOf(tree.values())) {
+                if (process.isAlive()) {
+                    process.descendants().forEach(d -> tree.putIfAbsent(d.pid(), d));
+                }
+            }
+            if (sessions.isEmpty()) return;
+            try (DirectoryStream<Path> proc = Files.newDirectoryStream(Path.of("/proc"), p -> isNumber(p.getFileName().toString()))) {
+                for (Path dir : proc) {
+                    long pid = Long.parseLong(dir.getFileName().toString());
+                    if (tree.containsKey(pid)) continue;
+                    if (sessions.contains(sessionOf(dir))) {
+                        ProcessHandle.of(pid).ifPresent(handle -> tree.putIfAbsent(pid, handle));
+                    }
+                }
+            } catch (IOException e) {
+                // descendants() alone then
+            }
+        }
+    }
+
+    // A killed orphan stays a zombie until init gets to it, it is as good as dead
+    private static boolean isAlive(ProcessHandle process) {
+        if (!process.isAlive()) return false;
+        if (!LINUX) return true;
+        try {
+            String stat = Files.readString(Path.of("/proc", Long.toString(process.pid()), "stat"));
+            return stat.charAt(stat.lastIndexOf(')') + 2) != 'Z';
+        } catch (IOException | RuntimeException e) {
+            return false; // gone meanwhile
+        }
+    }
+
+    // Field 6 of /proc/<pid>/stat; the command name before it may contain spaces and parentheses
+    private static long sessionOf(Path procDir) {
+        try {
+            String stat = Files.readString(procDir.resolve("stat"));
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[3]);
+        } catch (IOException | RuntimeException e) {
+            return -1; // gone meanwhile
+        }
+    }
+
+    // VmRSS and VmHWM (peak RSS) from /proc/<pid>/status
+    private static long[] residentBytes(long pid) {
+        long[] rssAndPeak = new long[2];
+        if (!LINUX) return rssAndPeak;
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    rssAndPeak[0] = kilobytes(line) * 1024;
+                } else if (line.startsWith("VmHWM:")) {
+                    rssAndPeak[1] = kilobytes(line) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // gone meanwhile
+        }
+        return rssAndPeak;
+    }
+
+    private static long kilobytes(String statusLine) {
+        return Long.parseLong(statusLine.substring(6).replace("kB", "").strip());
+    }
+
+    private static boolean isNumber(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) return false;
+        }
+        return !name.isEmpty();
+    }
+
+    private static String findSetsid() {
+        for (String dir : List.of("/usr/bin", "/bin")) {
+            Path setsid = Path.of(dir, "setsid");
+            if (Files.isExecutable(setsid)) return setsid.toString();
+        }
+        return null;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.javafxnotepad;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+
+/**
+ * One line per run, appended to run-history.csv (or run-history.jsonl) in the session dir, so code
+ * iterations can be compared: what ran (language and a hash of the source), how it ended and its
+ * {@link CodeRunner.Profile}. -Dnotepad.profile.history=csv|json|off, csv by default.
+ */
+public class RunHistory {
+
+    private static final String CSV_HEADER = "time,language,source,exit,outcome,compile_ms,run_ms,wall_ms,cpu_ms,peak_rss_kb";
+
+    public enum Format { CSV, JSON }
+
+    /** One run. Numbers are -1 where they were not measured. */
+    public record Entry(Instant time, String language, String sourceHash, int exitCode, String outcome,
+                       long compileMillis, long runMillis, long wallMillis, long cpuMillis, long peakRssBytes) {
+    }
+
+    private final Path file;
+    private final Format format;
+
+    public RunHistory(Path dir, Format format) {
+        this.format = format;
+        this.file = dir.resolve(format == Format.CSV ? "run-history.csv" : "run-history.jsonl");
+    }
+
+    /** The history the system properties ask for, null if it is off */
+    public static RunHistory fromProperties(Path dir) {
+        String setting = System.getProperty("notepad.profile.history", "csv").toLowerCase();
+        if (dir == null || setting.equals("off")) return null;
+        return new RunHistory(dir, setting.equals("json") ? Format.JSON : Format.CSV);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /** Short hash of the code, the same code always gets the same one */
+    public static String sourceHash(String code) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(code.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JDK has SHA-256
+        }
+    }
+
+    public synchronized void append(Entry entry) throws IOException {
+        boolean fresh = !Files.exists(file);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (format == Format.CSV) {
+                if (fresh) out.write(CSV_HEADER + "\n");
+                out.write(String.join(",", entry.time().toString(), entry.language(), entry.sourceHash(),
+                        Integer.toString(entry.exitCode()), '"' + entry.outcome().replace("\"", "\"\"") + '"',
+                        Long.toString(entry.compileMillis()), Long.toString(entry.runMillis()),
+                        Long.toString(entry.wallMillis()), Long.toString(entry.cpuMillis()),
+                        Long.toString(entry.peakRssBytes() < 0 ? -1 : entry.peakRssBytes() / 1024)) + "\n");
+            } else {
+                JsonObject json = new JsonObject();
+                json.addProperty("time", entry.time().toString());
+                json.addProperty("language", entry.language());
+                json.addProperty("source", entry.sourceHash());
+                json.addProperty("exit", entry.exitCode());
+                json.addProperty("outcome", entry.outcome());
+                json.addProperty("compileMs", entry.compileMillis());
+                json.addProperty("runMs", entry.runMillis());
+                json.addProperty("wallMs", entry.wallMillis());
+                json.addProperty("cpuMs", entry.cpuMillis());
+                json.addProperty("peakRssKb", entry.peakRssBytes() < 0 ? -1 : entry.peakRssBytes() / 1024);
+                out.write(json + "\n");
+            }
+        }
+    }
+}
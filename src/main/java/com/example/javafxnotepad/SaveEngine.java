@@ -0,0 +1,136 @@
+package com.example.javafxnotepad;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes document snapshots to disk off the FX thread.
+ *
+ * The text is encoded in fixed-size chunks straight from the piece table into a temp file next to the
+ * target, forced to disk, and then renamed over the target. A crash mid-save leaves the old file intact
+ * instead of a truncated one. Saves run one at a time on a single writer thread, in the order requested.
+ * A file that was loaded with a byte order mark is written with one, in the same charset.
+ */
+public class SaveEngine {
+
+    private static final int CHUNK = 64 * 1024;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "save-engine");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Completes on the writer thread once the file is on disk, or exceptionally with the IOException */
+    public CompletableFuture<Void> save(PieceTable snapshot, Path target, Charset charset, boolean bom) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                write(snapshot, target, charset, bom);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, writer);
+    }
+
+    public static void write(PieceTable snapshot, Path target, Charset charset, boolean bom) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path dir = absolute.getParent();
+        // same directory, so the final rename never crosses file systems
+        Path temp = Files.createTempFile(dir, "." + absolute.getFileName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                encodeTo(snapshot, charset, bom, channel);
+                channel.force(true);
+            }
+            copyPermissions(absolute, temp);
+            try {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(dir);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void encodeTo(PieceTable snapshot, Charset charset, boolean bom, FileChannel channel) throws IOException {
+        // REPLACE like FileWriter did: a char the charset cannot hold must not make the save fail
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(CHUNK);
+        ByteBuffer bytes = ByteBuffer.allocate((int) (CHUNK * encoder.maxBytesPerChar()) + 16);
+        if (bom) chars.put('\uFEFF'); // U+FEFF encodes to the BOM of UTF-8 and of either UTF-16
+
+        int length = snapshot.length();
+        int pos = 0;
+        while (pos < length) {
+            int count = Math.min(chars.remaining(), length - pos);
+            snapshot.getChars(pos, pos + count, chars.array(), chars.position());
+            chars.position(chars.position() + count);
+            pos += count;
+
+            chars.flip();
+            encode(encoder, chars, bytes, channel, false);
+            chars.compact();   // keeps a surrogate half cut off at the chunk end
+        }
+        chars.flip();
+        encode(encoder, chars, bytes, channel, true);
+        while (encoder.flush(bytes).isOverflow()) {
+            drain(bytes, channel);
+        }
+        drain(bytes, channel);
+    }
+
+    private static void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer bytes, FileChannel channel,
+                               boolean endOfInput) throws IOException {
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, bytes, endOfInput);
+            drain(bytes, channel);
+        } while (result.isOverflow());
+    }
+
+    private static void drain(ByteBuffer bytes, FileChannel channel) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    // the temp file was created with default permissions, keep e.g. the executable bit of a script
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            if (Files.exists(from)) {
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+            }
+        } catch (UnsupportedOperationException | IOException ignored) {
+            // not a POSIX file system (Windows)
+        }
+    }
+
+    // makes the rename itself durable on Linux/macOS; directories cannot be opened like this on Windows
+    private static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.javafxnotepad;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of code completions, keyed on a hash of the last {@value #TAIL} chars of the context.
+ *
+ * What is stored is only the continuation, the text the model added after the context. That makes two
+ * kinds of hits possible:
+ * - exact: the same context again (e.g. the user backspaced to something already seen)
+ * - typed ahead: the user typed chars that match the start of a cached continuation, the rest of it
+ *   is still a valid completion and is served without asking the model again
+ *
+ * The cache is capped by the memory its strings take, not just by entry count.
+ */
+public class SuggestionCache {
+
+    private static final int TAIL = 512;               // chars of context that identify an entry
+    private static final int MAX_TYPED_AHEAD = 64;     // how far back a typed-ahead lookup searches
+    private static final long DEFAULT_MAX_BYTES = 4L << 20;
+    private static final int ENTRY_OVERHEAD = 96;      // map node, entry and two String headers, roughly
+
+    private record Entry(String tail, String continuation) {
+        long bytes() {
+            return ENTRY_OVERHEAD + 2L * (tail.length() + continuation.length());
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true); // access order = LRU
+    private long bytes = 0;
+
+    private final AtomicLong exactHits = new AtomicLong();
+    private final AtomicLong typedAheadHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SuggestionCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public SuggestionCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** The continuation for this context, or null if a request is needed */
+    public synchronized String lookup(String context) {
+        Entry exact = entries.get(key(context, context.length()));
+        if (exact != null && exact.tail.equals(tail(context, context.length())) && !exact.continuation.isEmpty()) {
+            exactHits.incrementAndGet();
+            return exact.continuation;
+        }
+
+        // Did the user type into a completion we already have? Look for the context as it was before
+        for (int typed = 1; typed <= Math.min(MAX_TYPED_AHEAD, context.length()); typed++) {
+            int end = context.length() - typed;
+            Entry earlier = entries.get(key(context, end));
+            if (earlier == null || !earlier.tail.equals(tail(context, end))) continue;
+
+            String typedText = context.substring(end);
+            if (earlier.continuation.length() > typed && earlier.continuation.startsWith(typedText)) {
+                typedAheadHits.incrementAndGet();
+                String rest = earlier.continuation.substring(typed);
+                put(context, rest);   // next keystroke is an exact hit
+                return rest;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public synchronized void put(String context, String continuation) {
+        Entry entry = new Entry(tail(context, context.length()), continuation);
+        if (entry.bytes() > maxBytes) return;
+
+        Entry old = entries.put(key(context, context.length()), entry);
+        if (old != null) bytes -= old.bytes();
+        bytes += entry.bytes();
+
+        Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().bytes();
+            eldest.remove();
+        }
+    }
+
+    public long getHitCount() {
+        return exactHits.get() + typedAheadHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long hits = getHitCount();
+        long total = hits + misses.get();
+        return String.format("%d hits (%d typed ahead), %d misses, %.0f%% of requests saved, %d entries, %d KB",
+                hits, typedAheadHits.get(), misses.get(), total == 0 ? 0.0 : 100.0 * hits / total,
+                entries.size(), bytes / 1024);
+    }
+
+    private static String tail(String context, int end) {
+        return context.substring(Math.max(0, end - TAIL), end);
+    }
+
+    // 64-bit FNV-1a over the tail, String.hashCode collides too easily for this
+    private static long key(String context, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = Math.max(0, end - TAIL); i < end; i++) {
+            hash ^= context.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.javafxnotepad;
+
+/**
+ * Picks the debounce delay before asking for a suggestion, instead of a fixed 600 ms.
+ *
+ * The aim is to fire when the user pauses: 1.5x their usual gap between keystrokes (a smoothed average,
+ * so a fast typist is not interrupted and a slow one does not wait for nothing). A quarter of the
+ * service round-trip time is added on top, so a slow backend is not sent requests that the next
+ * keystroke will cancel anyway. Clamped to [{@value #MIN_DELAY_MS}, {@value #MAX_DELAY_MS}] ms.
+ */
+public class SuggestionDebounce {
+
+    private static final long INITIAL_DELAY_MS = 600;
+    private static final long MIN_DELAY_MS = 150;
+    private static final long MAX_DELAY_MS = 1200;
+    private static final double PAUSE_MS = 2000;    // longer gaps are pauses, not typing speed
+    private static final double SMOOTHING = 0.2;
+
+    private long lastKeystroke = 0;
+    private double keyGapMillis = -1;
+
+    /** Called on every edit, from the FX thread */
+    public void keystroke() {
+        long now = System.nanoTime();
+        if (lastKeystroke != 0) {
+            double gap = (now - lastKeystroke) / 1e6;
+            if (gap < PAUSE_MS) {
+                keyGapMillis = keyGapMillis < 0 ? gap : keyGapMillis + SMOOTHING * (gap - keyGapMillis);
+            }
+        }
+        lastKeystroke = now;
+    }
+
+    /** latencyMillis is the service's average round trip, or a negative value if none was measured yet */
+    public long delayMillis(double latencyMillis) {
+        if (keyGapMillis < 0) return INITIAL_DELAY_MS;
+        double delay = 1.5 * keyGapMillis + (latencyMillis > 0 ? latencyMillis / 4 : 0);
+        return Math.max(MIN_DELAY_MS, Math.min(MAX_DELAY_MS, Math.round(delay)));
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.javafxnotepad;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Where code completions come from. The editor only talks to this interface, the implementation is
+ * picked by {@link SuggestionProviders#fromConfig()}.
+ */
+public interface SuggestionProvider {
+
+    /**
+     * Completes with the model's answer, which starts with the context itself.
+     * following = code after the caret, for reference only.
+     * Cancelling the returned future must abort the request, not just ignore its answer.
+     */
+    CompletableFuture<String> getSuggestion(String context, String following);
+
+    /**
+     * Same, and while the answer is being generated onText gets the continuation piece by piece (only
+     * the new text each time, never the echoed context), on a background thread. Providers that can't
+     * stream just complete the future.
+     */
+    default CompletableFuture<String> getSuggestion(String context, String following, Consumer<String> onText) {
+        return getSuggestion(context, following);
+    }
+
+    default CompletableFuture<String> getSuggestion(String context) {
+        return getSuggestion(context, "");
+    }
+
+    /**
+     * Smoothed wait in ms until a suggestion starts to show (the round trip, or the time to the first
+     * token when streaming), -1 while unknown. Drives the debounce delay.
+     */
+    double getLatencyMillis();
+
+    /** Called once at startup, off the typing path: open connections etc. Must not block. */
+    default void warmUp() {
+    }
+
+    /** Short description for logs */
+    String describe();
+}
@@ -0,0 +1,101 @@
+package com.example.javafxnotepad;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Picks the {@link SuggestionProvider} from ~/.javafx-notepad/suggestions.properties. System properties
+ * with the same keys prefixed by "notepad.suggest." win over the file, e.g.
+ * -Dnotepad.suggest.provider=local
+ *
+ * provider    groq (default), openai or local
+ * endpoint    URL of the /chat/completions endpoint, for openai
+ * model       model name
+ * api.key.env environment variable that holds the API key. Keys never go in the file.
+ * stream      true (default) to show suggestions token by token as they are generated
+ * local.port  port of the local stand-in server, 0 = any free port
+ * local.delay.ms  artificial latency of the local stand-in server
+ */
+public final class SuggestionProviders {
+
+    private static final Logger logger = LoggerFactory.getLogger(SuggestionProviders.class);
+
+    private static final String GROQ_ENDPOINT = "https://api.groq.com/openai/v1/chat/completions";
+    private static final String GROQ_MODEL = "llama3-8b-8192";
+    private static final String OPENAI_ENDPOINT = "https://api.openai.com/v1/chat/completions";
+
+    private SuggestionProviders() {
+    }
+
+    public static Path configFile() {
+        return Path.of(System.getProperty("user.home"), ".javafx-notepad", "suggestions.properties");
+    }
+
+    public static SuggestionProvider fromConfig() {
+        Properties config = new Properties();
+        Path file = configFile();
+        if (Files.isRegularFile(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                config.load(reader);
+            } catch (IOException e) {
+                logger.error("Exception occurred", e);
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("notepad.suggest.")) {
+                config.setProperty(name.substring("notepad.suggest.".length()), System.getProperty(name));
+            }
+        }
+
+        SuggestionProvider provider = create(config);
+        System.out.println("Suggestions from " + provider.describe());
+        return provider;
+    }
+
+    static SuggestionProvider create(Properties config) {
+        String kind = config.getProperty("provider", "groq").trim().toLowerCase();
+        switch (kind) {
+            case "openai":
+                return new ChatCompletionProvider(
+                        config.getProperty("endpoint", OPENAI_ENDPOINT),
+                        config.getProperty("model", "gpt-4o-mini"),
+                        apiKey(config, "OPENAI_API_KEY"),
+                        stream(config));
+            case "local":
+                try {
+                    LocalSuggestionServer server = LocalSuggestionServer.start(
+                            Integer.parseInt(config.getProperty("local.port", "0")),
+                            Long.parseLong(config.getProperty("local.delay.ms", "0")));
+                    return new ChatCompletionProvider(server.endpoint(), "local", null, stream(config));
+                } catch (IOException | NumberFormatException e) {
+                    logger.error("Exception occurred", e);
+                    System.out.println("Local suggestion server could not start, falling back to Groq");
+                    break;
+                }
+            case "groq":
+                break;
+            default:
+                System.out.println("Unknown suggestion provider '" + kind + "', using Groq");
+        }
+        return new ChatCompletionProvider(
+                config.getProperty("endpoint", GROQ_ENDPOINT),
+                config.getProperty("model", GROQ_MODEL),
+                apiKey(config, "GROQ_API_KEY"),
+                stream(config));
+    }
+
+    private static boolean stream(Properties config) {
+        return Boolean.parseBoolean(config.getProperty("stream", "true").trim());
+    }
+
+    private static String apiKey(Properties config, String defaultVariable) {
+        return System.getenv(config.getProperty("api.key.env", defaultVariable));
+    }
+}
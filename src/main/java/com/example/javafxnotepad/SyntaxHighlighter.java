@@ -0,0 +1,455 @@
+package com.example.javafxnotepad;
+
+import javafx.application.Platform;
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.ReadOnlyStyledDocument;
+import org.fxmisc.richtext.model.SegmentOps;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.fxmisc.richtext.model.TwoDimensional;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Incremental syntax highlighting for the CodeArea (Python, Java, C, C++).
+ *
+ * A small hand-written lexer works one paragraph at a time. The only thing carried from one line to the
+ * next is the lexer state at its end (inside a block comment, inside a triple-quoted string...), which is
+ * kept per paragraph. An edit only marks the paragraphs it touched as dirty; re-lexing starts there and
+ * stops as soon as a line ends in the same state as before, so a keystroke re-lexes a single line while
+ * opening a comment re-lexes everything below it, as it must.
+ *
+ * Lexing runs on a background thread against an immutable snapshot of the CodeArea content; only the
+ * resulting spans for the re-lexed range are applied on the FX thread, with setStyleSpans on that range.
+ */
+public class SyntaxHighlighter {
+
+    public enum Language {
+        PYTHON, JAVA, C, CPP;
+
+        /** Maps the names in the language selector */
+        public static Language fromName(String name) {
+            if (name == null) return PYTHON;
+            return switch (name) {
+                case "Java" -> JAVA;
+                case "C" -> C;
+                case "C++" -> CPP;
+                default -> PYTHON;
+            };
+        }
+    }
+
+    // lexer state at the end of a paragraph
+    private static final int UNKNOWN = -1;
+    private static final int NORMAL = 0;
+    private static final int BLOCK_COMMENT = 1;
+    private static final int TRIPLE_DOUBLE = 2;
+    private static final int TRIPLE_SINGLE = 3;
+
+    private static final Collection<String> PLAIN = Collections.emptyList();
+    private static final Collection<String> KEYWORD = List.of("keyword");
+    private static final Collection<String> STRING = List.of("string");
+    private static final Collection<String> COMMENT = List.of("comment");
+    private static final Collection<String> NUMBER = List.of("number");
+    private static final Collection<String> ANNOTATION = List.of("annotation");
+    private static final Collection<String> PREPROCESSOR = List.of("preprocessor");
+    private static final Collection<String> GHOST = List.of("ghost-text");
+
+    private static final Set<String> JAVA_KEYWORDS = Set.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "permits", "private", "protected", "public", "record", "return", "sealed",
+            "short", "static", "strictfp", "super", "switch", "synchronized", "this", "throw", "throws",
+            "transient", "try", "var", "void", "volatile", "while", "yield", "true", "false", "null");
+
+    private static final Set<String> C_KEYWORDS = Set.of(
+            "auto", "bool", "break", "case", "char", "const", "continue", "default", "do", "double", "else",
+            "enum", "extern", "false", "float", "for", "goto", "if", "inline", "int", "long", "register",
+            "restrict", "return", "short", "signed", "sizeof", "static", "struct", "switch", "true",
+            "typedef", "union", "unsigned", "void", "volatile", "while", "NULL", "_Bool");
+
+    private static final Set<String> CPP_KEYWORDS = union(C_KEYWORDS, Set.of(
+            "alignas", "alignof", "and", "asm", "catch", "class", "concept", "constexpr", "const_cast",
+            "co_await", "co_return", "co_yield", "decltype", "delete", "dynamic_cast", "explicit", "export",
+            "final", "friend", "mutable", "namespace", "new", "noexcept", "not", "nullptr", "operator", "or",
+            "override", "private", "protected", "public", "reinterpret_cast", "requires", "static_assert",
+            "static_cast", "template", "this", "thread_local", "throw", "try", "typeid", "typename", "using",
+            "virtual", "wchar_t", "xor"));
+
+    private static final Set<String> PYTHON_KEYWORDS = Set.of(
+            "False", "None", "True", "and", "as", "assert", "async", "await", "break", "case", "class",
+            "continue", "def", "del", "elif", "else", "except", "finally", "for", "from", "global", "if",
+            "import", "in", "is", "lambda", "match", "nonlocal", "not", "or", "pass", "raise", "return",
+            "try", "while", "with", "yield");
+
+    private final CodeArea area;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "syntax-highlighter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // everything below is only touched on the FX thread
+    private Language language = Language.PYTHON;
+    private int[] states = {UNKNOWN};   // end state per paragraph
+    private int paragraphs = 1;
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyThrough = -1;
+    private long version = 0;           // bumped on every change or invalidation, an older result is dropped
+    private boolean jobQueued = false;
+    private boolean jobRunning = false;
+    private int ghostStart = -1;
+    private int ghostLength = 0;
+
+    // Our own immutable copy of the text, advanced change by change. A listener that edits the area while a
+    // change is being delivered (the ghost text does) means the area can already be ahead of the change we
+    // are handling, so offsets are mapped to paragraphs against this copy instead.
+    private ReadOnlyStyledDocument<Collection<String>, String, Collection<String>> text;
+
+    public SyntaxHighlighter(CodeArea area) {
+        this.area = area;
+        this.text = area.getContent().snapshot();
+        area.plainTextChanges().subscribe(this::onTextChange);
+    }
+
+    public void setLanguage(Language language) {
+        if (this.language == language) return;
+        this.language = language;
+        invalidateAll();
+    }
+
+    /** The ghost suggestion lives in the CodeArea text but must keep its own style */
+    public void setGhost(int start, int length) {
+        clearGhost();
+        ghostStart = start;
+        ghostLength = length;
+        invalidate(start, start + length);
+    }
+
+    public void clearGhost() {
+        if (ghostStart < 0) return;
+        int start = ghostStart;
+        int end = Math.min(ghostStart + ghostLength, text.length());
+        ghostStart = -1;
+        ghostLength = 0;
+        if (start <= end) invalidate(start, end);
+    }
+
+    private void invalidateAll() {
+        version++;
+        markDirty(0, paragraphs - 1);
+        Arrays.fill(states, 0, paragraphs, UNKNOWN);
+        scheduleJob();
+    }
+
+    /** Re-lex the paragraphs covering [start, end) even though their text did not change */
+    private void invalidate(int start, int end) {
+        int first = text.offsetToPosition(Math.min(start, text.length()), TwoDimensional.Bias.Forward).getMajor();
+        int last = text.offsetToPosition(Math.min(end, text.length()), TwoDimensional.Bias.Forward).getMajor();
+        version++;
+        Arrays.fill(states, first, last + 1, UNKNOWN);
+        markDirty(first, last);
+        scheduleJob();
+    }
+
+    private void onTextChange(PlainTextChange change) {
+        version++;
+        int paragraph = text.offsetToPosition(change.getPosition(), TwoDimensional.Bias.Forward).getMajor();
+        text = text.replace(change.getPosition(), change.getRemovalEnd(),
+                ReadOnlyStyledDocument.fromString(change.getInserted(), PLAIN, PLAIN, SegmentOps.styledTextOps()))._1;
+        int removedLines = countLines(change.getRemoved());
+        int insertedLines = countLines(change.getInserted());
+
+        // paragraphs (paragraph, paragraph + removedLines] are gone, insertedLines new ones take their place
+        int tail = paragraphs - (paragraph + 1 + removedLines);
+        int newCount = paragraphs - removedLines + insertedLines;
+        if (newCount > states.length) {
+            states = Arrays.copyOf(states, Math.max(newCount, states.length * 2));
+        }
+        System.arraycopy(states, paragraph + 1 + removedLines, states, paragraph + 1 + insertedLines, tail);
+        Arrays.fill(states, paragraph, paragraph + 1 + insertedLines, UNKNOWN);
+        paragraphs = newCount;
+
+        if (dirtyFrom <= dirtyThrough) {
+            int shift = insertedLines - removedLines;
+            if (dirtyFrom > paragraph + removedLines) dirtyFrom += shift;
+            dirtyThrough = dirtyThrough > paragraph + removedLines ? dirtyThrough + shift : Math.max(dirtyThrough, paragraph);
+        }
+        markDirty(paragraph, paragraph + insertedLines);
+        scheduleJob();
+    }
+
+    private void markDirty(int first, int last) {
+        dirtyFrom = Math.min(dirtyFrom, first);
+        dirtyThrough = Math.max(dirtyThrough, last);
+    }
+
+    // runLater so that a burst of changes in one pulse (and the ghost range set right after) is one job
+    private void scheduleJob() {
+        if (jobQueued || jobRunning) return;
+        jobQueued = true;
+        Platform.runLater(this::startJob);
+    }
+
+    private void startJob() {
+        jobQueued = false;
+        if (jobRunning || dirtyFrom > dirtyThrough) return;
+        jobRunning = true;
+
+        ReadOnlyStyledDocument<?, String, Collection<String>> snapshot = text;
+        int from = Math.min(dirtyFrom, paragraphs - 1);
+        int through = Math.min(dirtyThrough, paragraphs - 1);
+        int stateIn = from == 0 ? NORMAL : states[from - 1];
+        int[] previous = Arrays.copyOf(states, paragraphs);
+        long jobVersion = version;
+        Language jobLanguage = language;
+        int jobGhostStart = ghostStart;
+        int jobGhostEnd = ghostStart + ghostLength;
+
+        worker.execute(() -> {
+            Result result = lex(snapshot, jobLanguage, from, through, stateIn, previous, jobGhostStart, jobGhostEnd);
+            Platform.runLater(() -> applyResult(result, jobVersion, jobLanguage));
+        });
+    }
+
+    private record Result(int from, int offset, int[] endStates, StyleSpans<Collection<String>> spans) {
+    }
+
+    private void applyResult(Result result, long jobVersion, Language jobLanguage) {
+        jobRunning = false;
+        if (jobVersion != version || jobLanguage != language) {
+            scheduleJob();   // text changed meanwhile, dirty range is still recorded
+            return;
+        }
+        area.setStyleSpans(result.offset(), result.spans());
+        System.arraycopy(result.endStates(), 0, states, result.from(), result.endStates().length);
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyThrough = -1;
+    }
+
+    // ---------------------------------------------------------------- background
+
+    private static Result lex(ReadOnlyStyledDocument<?, String, Collection<String>> doc, Language language,
+                              int from, int through, int stateIn, int[] previous, int ghostStart, int ghostEnd) {
+        int count = doc.getParagraphCount();
+        int offset = doc.position(from, 0).toOffset();
+        Spans out = new Spans(offset, ghostStart, ghostEnd);
+        int[] endStates = new int[count - from];
+
+        int state = stateIn;
+        int i = from;
+        while (i < count) {
+            state = lexLine(doc.getParagraph(i).getText(), state, language, out);
+            endStates[i - from] = state;
+            if (i < count - 1) out.add(PLAIN, 1);   // the line break
+            i++;
+            // past the edit and the line ends the way it did before: nothing below can change
+            if (i > through && i - 1 < previous.length && previous[i - 1] == state) break;
+        }
+        return new Result(from, offset, Arrays.copyOf(endStates, i - from), out.create());
+    }
+
+    /** Styles one line and returns the lexer state at its end */
+    private static int lexLine(String line, int state, Language language, Spans out) {
+        boolean python = language == Language.PYTHON;
+        Set<String> keywords = switch (language) {
+            case JAVA -> JAVA_KEYWORDS;
+            case C -> C_KEYWORDS;
+            case CPP -> CPP_KEYWORDS;
+            case PYTHON -> PYTHON_KEYWORDS;
+        };
+        int n = line.length();
+        int i = 0;
+
+        // whatever was left open by the previous line
+        if (state == BLOCK_COMMENT) {
+            int end = line.indexOf("*/");
+            if (end < 0) {
+                out.add(COMMENT, n);
+                return BLOCK_COMMENT;
+            }
+            out.add(COMMENT, end + 2);
+            i = end + 2;
+        } else if (state == TRIPLE_DOUBLE || state == TRIPLE_SINGLE) {
+            int end = findTripleEnd(line, 0, state == TRIPLE_DOUBLE ? '"' : '\'');
+            if (end < 0) {
+                out.add(STRING, n);
+                return state;
+            }
+            out.add(STRING, end);
+            i = end;
+        }
+
+        int firstNonBlank = i;
+        while (firstNonBlank < n && Character.isWhitespace(line.charAt(firstNonBlank))) firstNonBlank++;
+
+        while (i < n) {
+            char c = line.charAt(i);
+            char next = i + 1 < n ? line.charAt(i + 1) : '\0';
+
+            if (!python && c == '/' && next == '/') {
+                out.add(COMMENT, n - i);
+                return NORMAL;
+            }
+            if (!python && c == '/' && next == '*') {
+                int end = line.indexOf("*/", i + 2);
+                if (end < 0) {
+                    out.add(COMMENT, n - i);
+                    return BLOCK_COMMENT;
+                }
+                out.add(COMMENT, end + 2 - i);
+                i = end + 2;
+                continue;
+            }
+            if (python && c == '#') {
+                out.add(COMMENT, n - i);
+                return NORMAL;
+            }
+            if (!python && language != Language.JAVA && c == '#' && i == firstNonBlank) {
+                // preprocessor line, up to a trailing comment
+                int end = line.indexOf("//", i);
+                if (end < 0) end = line.indexOf("/*", i);
+                if (end < 0) end = n;
+                out.add(PREPROCESSOR, end - i);
+                i = end;
+                continue;
+            }
+            if (python && (c == '"' || c == '\'') && next == c && i + 2 < n && line.charAt(i + 2) == c) {
+                int end = findTripleEnd(line, i + 3, c);
+                if (end < 0) {
+                    out.add(STRING, n - i);
+                    return c == '"' ? TRIPLE_DOUBLE : TRIPLE_SINGLE;
+                }
+                out.add(STRING, end - i);
+                i = end;
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                int end = i + 1;
+                while (end < n && line.charAt(end) != c) {
+                    end += line.charAt(end) == '\\' ? 2 : 1;
+                }
+                end = Math.min(end + 1, n);   // unterminated: ends with the line
+                out.add(STRING, end - i);
+                i = end;
+                continue;
+            }
+            if (c == '@' && (language == Language.JAVA || (python && i == firstNonBlank))) {
+                int end = i + 1;
+                while (end < n && (Character.isJavaIdentifierPart(line.charAt(end)) || line.charAt(end) == '.')) end++;
+                out.add(ANNOTATION, end - i);
+                i = end;
+                continue;
+            }
+            if (Character.isDigit(c) || (c == '.' && Character.isDigit(next))) {
+                int end = i + 1;
+                while (end < n && (Character.isLetterOrDigit(line.charAt(end)) || line.charAt(end) == '.'
+                        || line.charAt(end) == '_')) end++;
+                out.add(NUMBER, end - i);
+                i = end;
+                continue;
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < n && Character.isJavaIdentifierPart(line.charAt(end))) end++;
+                out.add(keywords.contains(line.substring(i, end)) ? KEYWORD : PLAIN, end - i);
+                i = end;
+                continue;
+            }
+            out.add(PLAIN, 1);
+            i++;
+        }
+        return NORMAL;
+    }
+
+    /** Index just past the closing triple quote, or -1 if the string goes on to the next line */
+    private static int findTripleEnd(String line, int from, char quote) {
+        int i = from;
+        while (i + 2 < line.length()) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == quote && line.charAt(i + 1) == quote && line.charAt(i + 2) == quote) return i + 3;
+            i++;
+        }
+        return -1;
+    }
+
+    private static int countLines(String text) {
+        int lines = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            if (text.charAt(i) == '\n') lines++;
+        }
+        return lines;
+    }
+
+    private static Set<String> union(Set<String> a, Set<String> b) {
+        HashSet<String> all = new HashSet<>(a);
+        all.addAll(b);
+        return Set.copyOf(all);
+    }
+
+    /** StyleSpans builder that merges equal neighbours and lets the ghost range override the lexer */
+    private static final class Spans {
+        private final StyleSpansBuilder<Collection<String>> builder = new StyleSpansBuilder<>();
+        private final int ghostStart;
+        private final int ghostEnd;
+        private int position;
+        private Collection<String> pendingStyle = PLAIN;
+        private int pendingLength = 0;
+        private boolean empty = true;
+
+        Spans(int offset, int ghostStart, int ghostEnd) {
+            this.position = offset;
+            this.ghostStart = ghostStart;
+            this.ghostEnd = ghostEnd;
+        }
+
+        void add(Collection<String> style, int length) {
+            while (length > 0) {
+                int run = length;
+                Collection<String> effective = style;
+                if (ghostStart >= 0 && position < ghostEnd && position + length > ghostStart) {
+                    if (position < ghostStart) {
+                        run = ghostStart - position;
+                    } else {
+                        run = Math.min(length, ghostEnd - position);
+                        effective = GHOST;
+                    }
+                }
+                append(effective, run);
+                position += run;
+                length -= run;
+            }
+        }
+
+        private void append(Collection<String> style, int length) {
+            if (style == pendingStyle) {
+                pendingLength += length;
+                return;
+            }
+            if (pendingLength > 0) {
+                builder.add(pendingStyle, pendingLength);
+                empty = false;
+            }
+            pendingStyle = style;
+            pendingLength = length;
+        }
+
+        StyleSpans<Collection<String>> create() {
+            if (pendingLength > 0 || empty) builder.add(pendingStyle, pendingLength);
+            return builder.create();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.javafxnotepad;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the program against a directory of test cases: name.in is fed to stdin, and the output is
+ * compared with name.out (or .ans / .expected) next to it. The program is built once, then the cases
+ * run at the same time, one per core, each in a working directory of its own.
+ *
+ * Every process, build step or case, has a {@link ProcessSupervisor} of its own: its session is held to
+ * the run limits and reaped when it ends, so a case that breaks a limit or leaves a daemon behind only
+ * takes itself down. A case's stdout and stderr may each hold -Dnotepad.tests.maxOutputMB (8).
+ *
+ * Output is compared line by line, ignoring trailing spaces and trailing empty lines, the way most
+ * judges do.
+ */
+public class TestCaseRunner {
+
+    public enum Status { PASSED, FAILED, TIMED_OUT, CRASHED, RAN }
+
+    /** expected is null if there is no expected output, the case then only has to run */
+    public record TestCase(String name, Path input, Path expected) {
+    }
+
+    /** actual, expected and stderr are cut to their first {@value #SHOWN_CHARS} chars */
+    public record Outcome(TestCase testCase, Status status, long millis, int exitCode,
+                          String actual, String expected, String stderr) {
+    }
+
+    private static final List<String> EXPECTED_EXTENSIONS = List.of(".out", ".ans", ".expected");
+    private static final long CASE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(Long.getLong("notepad.tests.timeoutSeconds", 10));
+    private static final long MAX_CASE_OUTPUT = Long.getLong("notepad.tests.maxOutputMB", 8) * 1024 * 1024;
+    private static final int THREADS = Integer.getInteger("notepad.tests.threads", Runtime.getRuntime().availableProcessors());
+    private static final int SHOWN_CHARS = 64 * 1024;
+    private static final int CHUNK = 8192;
+
+    /** The cases in dir, in natural order (case2 before case10) */
+    public static List<TestCase> findCases(Path dir) throws IOException {
+        List<TestCase> cases = new ArrayList<>();
+        try (DirectoryStream<Path> inputs = Files.newDirectoryStream(dir, "*.in")) {
+            for (Path input : inputs) {
+                String file = input.getFileName().toString();
+                String name = file.substring(0, file.length() - 3);
+                Path expected = null;
+                for (String extension : EXPECTED_EXTENSIONS) {
+                    Path candidate = dir.resolve(name + extension);
+                    if (Files.isRegularFile(candidate)) {
+                        expected = candidate;
+                        break;
+                    }
+                }
+                cases.add(new TestCase(name, input, expected));
+            }
+        }
+        cases.sort(Comparator.comparing(TestCase::name, TestCaseRunner::compareNatural));
+        return cases;
+    }
+
+    /** Writes the program out on the runner thread: adds its build steps, returns the command that runs it */
+    public interface Setup {
+        ProcessBuilder program(List<CodeRunner.Step> build) throws IOException;
+    }
+
+    /**
+     * A run for CodeRunner.runTask: the build steps (their output goes to output), then the program
+     * once per case. The program's command is a template, each case gets its own stdin and directory.
+     * onOutcome is called from the case threads as cases finish.
+     */
+    public static CodeRunner.Task task(Setup setup, List<TestCase> cases, Path workDir, ProcessSupervisor.Limits limits,
+                                       Consumer<Outcome> onOutcome) {
+        return new Run(setup, cases, workDir, limits, onOutcome);
+    }
+
+    private static class Run implements CodeRunner.Task {
+        private final Setup setup;
+        private final List<TestCase> cases;
+        private final Path workDir;
+        private final ProcessSupervisor.Limits limits;
+        private final Consumer<Outcome> onOutcome;
+        private final Set<ProcessSupervisor> running = ConcurrentHashMap.newKeySet();
+        private volatile boolean stopped;
+        private volatile ExecutorService pool;
+
+        Run(Setup setup, List<TestCase> cases, Path workDir, ProcessSupervisor.Limits limits, Consumer<Outcome> onOutcome) {
+            this.setup = setup;
+            this.cases = cases;
+            this.workDir = workDir;
+            this.limits = limits;
+            this.onOutcome = onOutcome;
+        }
+
+        @Override
+        public CodeRunner.Result run(Consumer<String> output) throws Exception {
+            List<CodeRunner.Step> build = new ArrayList<>();
+            ProcessBuilder program = setup.program(build);
+            for (CodeRunner.Step step : build) {
+                ProcessSupervisor supervisor = supervise();
+                int exitCode;
+                try {
+                    Process process = step.start();
+                    supervisor.watch(process);
+                    if (stopped) supervisor.reap(); // stop() came before watch()
+                    process.getOutputStream().close();
+                    try (Reader reader = new InputStreamReader(process.getInputStream(), Charset.defaultCharset())) {
+                        char[] buffer = new char[CHUNK];
+                        int n;
+                        while ((n = reader.read(buffer)) != -1) {
+                            output.accept(new String(buffer, 0, n));
+                        }
+                    }
+                    exitCode = process.waitFor();
+                } finally {
+                    finish(supervisor);
+                }
+                if (stopped) return new CodeRunner.Result(-1, false, true, 0, null);
+                if (supervisor.exceeded() != null) output.accept("Build stopped: " + supervisor.exceeded() + " exceeded\n");
+                if (exitCode != 0) return new CodeRunner.Result(exitCode, true, false, 0, null);
+            }
+
+            int threads = Math.max(1, Math.min(THREADS, cases.size()));
+            output.accept("Running " + cases.size() + " test cases on " + threads + " threads\n");
+            AtomicInteger threadNumber = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "test-case-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            AtomicInteger passed = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (TestCase testCase : cases) {
+                    futures.add(pool.submit(() -> {
+                        Outcome outcome;
+                        try {
+                            outcome = runCase(testCase, program);
+                        } catch (IOException e) {
+                            outcome = new Outcome(testCase, Status.CRASHED, 0, -1, "", null, e.toString());
+                        }
+                        if (outcome == null) return null; // stopped
+                        if (outcome.status() == Status.PASSED || outcome.status() == Status.RAN) {
+                            passed.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                            output.accept(String.format("%-9s %s (%d ms)%n", outcome.status(), testCase.name(), outcome.millis()));
+                        }
+                        onOutcome.accept(outcome);
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    if (stopped) break;
+                    future.get();
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            if (stopped) return new CodeRunner.Result(-1, false, true, 0, null);
+
+            output.accept(passed.get() + " of " + cases.size() + " test cases passed\n");
+            return new CodeRunner.Result(failed.get() == 0 ? 0 : 1, false, false, 0, null);
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+            ExecutorService current = pool;
+            if (current != null) current.shutdownNow();
+            running.forEach(ProcessSupervisor::reap);
+        }
+
+        // A supervisor for one process tree, reaped by stop()
+        private ProcessSupervisor supervise() {
+            ProcessSupervisor supervisor = new ProcessSupervisor(limits);
+            supervisor.begin(null); // breaking a limit reaps the tree, the waiting code sees it exit
+            running.add(supervisor);
+            return supervisor;
+        }
+
+        private void finish(ProcessSupervisor supervisor) {
+            supervisor.end(); // kills what the process left behind, daemons in its session too
+            running.remove(supervisor);
+        }
+
+        private Outcome runCase(TestCase testCase, ProcessBuilder program) throws IOException, InterruptedException {
+            if (stopped) return null;
+            Path dir = workDir.resolve(testCase.name().replaceAll("[^\\w.-]", "_"));
+            Files.createDirectories(dir);
+            Path stdout = dir.resolve("stdout.txt");
+            Path stderr = dir.resolve("stderr.txt");
+
+            // Files instead of pipes: no reader thread per case, and a case can't block on a full pipe
+            ProcessBuilder builder = new ProcessBuilder(program.command()).directory(dir.toFile());
+            builder.environment().clear();
+            builder.environment().putAll(program.environment());
+            ProcessSupervisor.isolate(builder)
+                    .redirectInput(testCase.input().toFile())
+                    .redirectOutput(stdout.toFile())
+                    .redirectError(stderr.toFile());
+
+            long started = System.nanoTime();
+            ProcessSupervisor supervisor = supervise();
+            Process process;
+            Status status = null;
+            String stopReason = null;
+            try {
+                process = builder.start();
+                supervisor.watch(process);
+                while (!process.waitFor(20, TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        supervisor.reap();
+                        return null;
+                    }
+                    long elapsed = (System.nanoTime() - started) / 1_000_000;
+                    boolean tooMuchOutput = Files.size(stdout) > MAX_CASE_OUTPUT || Files.size(stderr) > MAX_CASE_OUTPUT;
+                    if (elapsed > CASE_TIMEOUT_MS || tooMuchOutput) {
+                        status = elapsed > CASE_TIMEOUT_MS ? Status.TIMED_OUT : Status.FAILED;
+                        stopReason = elapsed > CASE_TIMEOUT_MS ? null : "output limit of " + MAX_CASE_OUTPUT / (1024 * 1024) + " MB";
+                        supervisor.reap();
+                        process.waitFor();
+                        break;
+                    }
+                }
+            } finally {
+                finish(supervisor);
+            }
+            if (stopped) return null;
+            if (supervisor.exceeded() != null) {
+                status = Status.CRASHED;
+                stopReason = supervisor.exceeded();
+            }
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            int exitCode = process.exitValue();
+
+            String actual = readHead(stdout, MAX_CASE_OUTPUT);
+            String expected = testCase.expected() == null ? null : readHead(testCase.expected(), MAX_CASE_OUTPUT);
+            if (status == null) {
+                if (exitCode != 0) {
+                    status = Status.CRASHED;
+                } else if (expected == null) {
+                    status = Status.RAN;
+                } else {
+                    status = sameOutput(expected, actual) ? Status.PASSED : Status.FAILED;
+                }
+            }
+            String errors = readHead(stderr, SHOWN_CHARS);
+            if (stopReason != null) errors = "Stopped: " + stopReason + " exceeded\n" + errors;
+            return new Outcome(testCase, status, millis, exitCode, cut(actual), expected == null ? null : cut(expected),
+                    cut(errors));
+        }
+    }
+
+    /** Equal except for trailing spaces on a line and empty lines at the end */
+    public static boolean sameOutput(String expected, String actual) {
+        return normalizedLines(expected).equals(normalizedLines(actual));
+    }
+
+    /** The lines that differ, expected with "-" and actual with "+", at most maxLines of them */
+    public static String diff(String expected, String actual, int maxLines) {
+        List<String> want = normalizedLines(expected);
+        List<String> got = normalizedLines(actual);
+        StringBuilder out = new StringBuilder();
+        int shown = 0;
+        for (int i = 0; i < Math.max(want.size(), got.size()) && shown < maxLines; i++) {
+            String w = i < want.size() ? want.get(i) : null;
+            String g = i < got.size() ? got.get(i) : null;
+            if (w != null && w.equals(g)) continue;
+            out.append("line ").append(i + 1).append(":\n");
+            out.append("- ").append(w == null ? "(no line)" : w).append('\n');
+            out.append("+ ").append(g == null ? "(no line)" : g).append('\n');
+            shown++;
+        }
+        if (shown == maxLines) out.append("...\n");
+        return out.toString();
+    }
+
+    private static List<String> normalizedLines(String text) {
+        List<String> lines = new ArrayList<>();
+        text.lines().forEach(line -> lines.add(line.stripTrailing()));
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
+        return lines;
+    }
+
+    private static String readHead(Path file, long maxBytes) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return new String(in.readNBytes((int) Math.min(maxBytes, Integer.MAX_VALUE - 8)), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String cut(String text) {
+        return text.length() <= SHOWN_CHARS ? text : text.substring(0, SHOWN_CHARS) + "\n[...]";
+    }
+
+    private static final Pattern NUMBER_OR_TEXT = Pattern.compile("\\d+|\\D+");
+
+    // "case2" < "case10"
+    private static int compareNatural(String a, String b) {
+        Matcher ma = NUMBER_OR_TEXT.matcher(a);
+        Matcher mb = NUMBER_OR_TEXT.matcher(b);
+        while (ma.find() && mb.find()) {
+            String pa = ma.group();
+            String pb = mb.group();
+            int result;
+            if (Character.isDigit(pa.charAt(0)) && Character.isDigit(pb.charAt(0))) {
+                result = Long.compare(Long.parseLong(pa.length() > 18 ? pa.substring(0, 18) : pa),
+                        Long.parseLong(pb.length() > 18 ? pb.substring(0, 18) : pb));
+            } else {
+                result = pa.compareTo(pb);
+            }
+            if (result != 0) return result;
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+}
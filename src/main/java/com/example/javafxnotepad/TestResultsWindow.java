@@ -0,0 +1,149 @@
+package com.example.javafxnotepad;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.SplitPane;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The pass/fail grid of a test run. Rows come in as cases finish and are kept in case order; the
+ * selected case's diff (or output, if there is nothing to compare with) shows below. FX thread only.
+ */
+public class TestResultsWindow {
+
+    private static final int DIFF_LINES = 200;
+
+    private final Stage stage = new Stage();
+    private final ObservableList<TestCaseRunner.Outcome> outcomes = FXCollections.observableArrayList();
+    private final TableView<TestCaseRunner.Outcome> table = new TableView<>(outcomes);
+    private final TextArea details = new TextArea();
+    private final Label summary = new Label();
+    private final Map<String, Integer> order = new HashMap<>(); // case name -> position in the folder
+    private final Map<TestCaseRunner.Status, Integer> counts = new EnumMap<>(TestCaseRunner.Status.class);
+    private final int total;
+
+    public TestResultsWindow(Window owner, String title, List<TestCaseRunner.TestCase> cases) {
+        for (int i = 0; i < cases.size(); i++) {
+            order.put(cases.get(i).name(), i);
+        }
+        total = cases.size();
+
+        TableColumn<TestCaseRunner.Outcome, String> name = new TableColumn<>("Case");
+        name.setCellValueFactory(row -> new ReadOnlyObjectWrapper<>(row.getValue().testCase().name()));
+        name.setPrefWidth(220);
+        TableColumn<TestCaseRunner.Outcome, TestCaseRunner.Status> status = new TableColumn<>("Result");
+        status.setCellValueFactory(row -> new ReadOnlyObjectWrapper<>(row.getValue().status()));
+        status.setCellFactory(column -> new TableCell<>() {
+            @Override
+            protected void updateItem(TestCaseRunner.Status item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : item.toString());
+                boolean good = item == TestCaseRunner.Status.PASSED || item == TestCaseRunner.Status.RAN;
+                setStyle(empty || item == null ? "" : "-fx-text-fill: " + (good ? "#2e9d44" : "#d64545") + "; -fx-font-weight: bold;");
+            }
+        });
+        status.setPrefWidth(100);
+        TableColumn<TestCaseRunner.Outcome, Long> time = new TableColumn<>("Time (ms)");
+        time.setCellValueFactory(row -> new ReadOnlyObjectWrapper<>(row.getValue().millis()));
+        TableColumn<TestCaseRunner.Outcome, Integer> exit = new TableColumn<>("Exit");
+        exit.setCellValueFactory(row -> new ReadOnlyObjectWrapper<>(row.getValue().exitCode()));
+        table.getColumns().setAll(List.of(name, status, time, exit));
+        table.setPlaceholder(new Label("Building..."));
+        table.getSelectionModel().selectedItemProperty().addListener((obs, old, selected) -> showDetails(selected));
+
+        details.setEditable(false);
+        details.setStyle("-fx-font-family: monospace;");
+        SplitPane split = new SplitPane(table, details);
+        split.setOrientation(Orientation.VERTICAL);
+        split.setDividerPositions(0.55);
+
+        BorderPane root = new BorderPane(split);
+        summary.setPadding(new Insets(5));
+        root.setTop(summary);
+        updateSummary();
+
+        Scene scene = new Scene(root, 640, 520);
+        if (owner.getScene() != null) scene.getStylesheets().setAll(owner.getScene().getStylesheets()); // dark mode
+        stage.setScene(scene);
+        stage.setTitle("Tests: " + title);
+        stage.initOwner(owner);
+    }
+
+    public void show() {
+        stage.show();
+        stage.toFront();
+    }
+
+    /** A case finished. Keeps the rows in the order of the folder, not of finishing. */
+    public void add(TestCaseRunner.Outcome outcome) {
+        Comparator<TestCaseRunner.Outcome> byPosition =
+                Comparator.comparingInt(o -> order.getOrDefault(o.testCase().name(), Integer.MAX_VALUE));
+        int index = Collections.binarySearch(outcomes, outcome, byPosition);
+        outcomes.add(index < 0 ? -index - 1 : index, outcome);
+        counts.merge(outcome.status(), 1, Integer::sum);
+        updateSummary();
+    }
+
+    /** The run ended; says so if it ended before every case ran */
+    public void finished(CodeRunner.Result result) {
+        if (result.compileFailed()) {
+            table.setPlaceholder(new Label("Compilation failed, see the output pane"));
+        } else if (result.error() != null) {
+            table.setPlaceholder(new Label("Could not run the tests: " + result.error().getMessage()));
+        }
+        String ending = result.stopped() ? " (stopped)" : String.format(" in %.2f s", result.millis() / 1000.0);
+        summary.setText(summary.getText() + ending);
+    }
+
+    private void updateSummary() {
+        StringBuilder text = new StringBuilder();
+        int passed = counts.getOrDefault(TestCaseRunner.Status.PASSED, 0) + counts.getOrDefault(TestCaseRunner.Status.RAN, 0);
+        text.append(passed).append(" of ").append(total).append(" passed");
+        counts.forEach((status, count) -> {
+            if (status != TestCaseRunner.Status.PASSED && status != TestCaseRunner.Status.RAN) {
+                text.append(", ").append(count).append(' ').append(status.toString().toLowerCase().replace('_', ' '));
+            }
+        });
+        int pending = total - outcomes.size();
+        if (pending > 0) text.append(", ").append(pending).append(" to go");
+        summary.setText(text.toString());
+    }
+
+    private void showDetails(TestCaseRunner.Outcome outcome) {
+        if (outcome == null) {
+            details.clear();
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(outcome.testCase().name()).append(": ").append(outcome.status())
+                .append(", ").append(outcome.millis()).append(" ms, exit code ").append(outcome.exitCode()).append("\n\n");
+        if (outcome.status() == TestCaseRunner.Status.FAILED && outcome.expected() != null) {
+            text.append("Differences (- expected, + actual):\n")
+                    .append(TestCaseRunner.diff(outcome.expected(), outcome.actual(), DIFF_LINES));
+        } else {
+            text.append("Output:\n").append(outcome.actual());
+        }
+        if (!outcome.stderr().isEmpty()) {
+            text.append("\n\nStderr:\n").append(outcome.stderr());
+        }
+        details.setText(text.toString());
+    }
+}
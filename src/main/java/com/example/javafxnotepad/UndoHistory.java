@@ -0,0 +1,228 @@
+package com.example.javafxnotepad;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Undo/redo of one document, whichever editor shows it. An entry is just the edit: where, the text it
+ * removed and the text it put there, so undoing is one replace with the two swapped. Keystrokes that
+ * follow each other on the same spot are merged into one entry until a pause, a line break or
+ * {@value #MERGE_MAX_CHARS} chars, so undo goes back a word or so at a time, not a char.
+ *
+ * The entries together may take -Dnotepad.undo.maxMB (16 by default). Past that the texts of the oldest
+ * big entries are deflated, and if that is not enough the oldest entries are dropped. An edit that alone
+ * would not fit (a replace-all over a huge file) clears the history instead of being copied.
+ *
+ * FX thread only. Edits made by undo and redo themselves must not be recorded.
+ */
+public class UndoHistory {
+
+    private static final long MAX_BYTES = Long.getLong("notepad.undo.maxMB", 16) * 1024 * 1024;
+    private static final long MERGE_MILLIS = 1500;
+    private static final int MERGE_MAX_CHARS = 1024;
+    private static final int DEFLATE_MIN_CHARS = 4096;
+    private static final int ENTRY_OVERHEAD = 96; // the entry, its two texts and their headers
+
+    /** What undo or redo does to the document: [start, end) becomes text */
+    public record Change(int start, int end, String text) {
+    }
+
+    private final Deque<Entry> undo = new ArrayDeque<>(); // newest last
+    private final Deque<Entry> redo = new ArrayDeque<>();
+    private long bytes = 0;
+    private Entry typing; // the newest entry while keystrokes may still merge into it
+
+    /** Called before the document replaces [start, end) of document with text */
+    public void record(PieceTable document, int start, int end, String text) {
+        clearRedo();
+        long now = System.currentTimeMillis();
+        boolean keystroke = end - start <= 1 && text.length() <= 1;
+        if (keystroke && typing != null && merge(document, start, end, text, now)) return;
+
+        typing = null;
+        if (2L * (end - start + text.length()) + ENTRY_OVERHEAD > MAX_BYTES) {
+            clear(); // too big to keep, and what came before can't be undone past it
+            System.out.println("Undo history cleared, an edit of " + (end - start + text.length()) + " chars does not fit");
+            return;
+        }
+        Entry entry = new Entry(start, new Text(document.getText(start, end)), new Text(text));
+        entry.time = now;
+        push(undo, entry);
+        if (keystroke && !text.equals("\n")) typing = entry;
+        trim();
+    }
+
+    public boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    /** The change that takes the document back before the newest edit, null if there is none */
+    public Change undo() {
+        typing = null;
+        Entry entry = undo.pollLast();
+        if (entry == null) return null;
+        redo.addLast(entry);
+        return new Change(entry.start, entry.start + entry.inserted.length, entry.removed.get());
+    }
+
+    /** The change that makes the newest undone edit again, null if there is none */
+    public Change redo() {
+        typing = null;
+        Entry entry = redo.pollLast();
+        if (entry == null) return null;
+        undo.addLast(entry);
+        return new Change(entry.start, entry.start + entry.removed.length, entry.inserted.get());
+    }
+
+    /** A new text, e.g. a file was opened into the document */
+    public void clear() {
+        undo.clear();
+        redo.clear();
+        bytes = 0;
+        typing = null;
+    }
+
+    /** Memory the entries take, roughly */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Folds a keystroke into the typing entry if it touches the text typed so far. The entry turned
+     * the text it removed at start into inserted; the merged one covers both edits.
+     */
+    private boolean merge(PieceTable document, int start, int end, String text, long now) {
+        Entry entry = typing;
+        int insertedEnd = entry.start + entry.inserted.length;
+        if (now - entry.time > MERGE_MILLIS || text.equals("\n") || start > insertedEnd || end < entry.start
+                || entry.removed.length + entry.inserted.length >= MERGE_MAX_CHARS) {
+            return false;
+        }
+        String removed = entry.removed.get();
+        String inserted = entry.inserted.get();
+        // chars the keystroke removes just outside what was typed are now removed by the entry too
+        String before = start < entry.start ? document.getText(start, entry.start) : "";
+        String after = end > insertedEnd ? document.getText(insertedEnd, end) : "";
+        String merged = inserted.substring(0, Math.max(0, start - entry.start)) + text
+                + inserted.substring(Math.min(inserted.length(), Math.max(0, end - entry.start)));
+
+        bytes -= entry.bytes();
+        entry.start = Math.min(start, entry.start);
+        entry.removed = new Text(before + removed + after);
+        entry.inserted = new Text(merged);
+        entry.time = now;
+        bytes += entry.bytes();
+        return true;
+    }
+
+    private void push(Deque<Entry> stack, Entry entry) {
+        stack.addLast(entry);
+        bytes += entry.bytes();
+    }
+
+    private void clearRedo() {
+        for (Entry entry : redo) bytes -= entry.bytes();
+        redo.clear();
+    }
+
+    // Over the cap: deflate the oldest big texts first, then drop the oldest entries
+    private void trim() {
+        if (bytes <= MAX_BYTES) return;
+        Iterator<Entry> oldest = undo.iterator();
+        while (bytes > MAX_BYTES && oldest.hasNext()) {
+            Entry entry = oldest.next();
+            if (entry == typing) break;
+            bytes -= entry.bytes();
+            entry.removed.deflate();
+            entry.inserted.deflate();
+            bytes += entry.bytes();
+        }
+        while (bytes > MAX_BYTES && undo.size() > 1) {
+            bytes -= undo.pollFirst().bytes();
+        }
+    }
+
+    private static final class Entry {
+        int start;
+        Text removed;
+        Text inserted;
+        long time;
+
+        Entry(int start, Text removed, Text inserted) {
+            this.start = start;
+            this.removed = removed;
+            this.inserted = inserted;
+        }
+
+        long bytes() {
+            return ENTRY_OVERHEAD + removed.bytes() + inserted.bytes();
+        }
+    }
+
+    /** A String, or its chars deflated once it got old and big */
+    private static final class Text {
+        final int length;
+        private String plain;
+        private byte[] packed;
+
+        Text(String text) {
+            this.length = text.length();
+            this.plain = text;
+        }
+
+        long bytes() {
+            return plain != null ? 2L * length : packed.length;
+        }
+
+        String get() {
+            return plain != null ? plain : inflate(packed, length);
+        }
+
+        // Chars as they are, no encoder: a lone surrogate comes back exactly as it was
+        void deflate() {
+            if (plain == null || length < DEFLATE_MIN_CHARS) return;
+            ByteBuffer chars = ByteBuffer.allocate(2 * length);
+            chars.asCharBuffer().put(plain);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(chars.array());
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            if (out.size() < 2L * length) {
+                packed = out.toByteArray();
+                plain = null;
+            }
+        }
+
+        private static String inflate(byte[] packed, int length) {
+            byte[] chars = new byte[2 * length];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(packed);
+                int done = 0;
+                while (done < chars.length && !inflater.finished()) {
+                    done += inflater.inflate(chars, done, chars.length - done);
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Undo history is corrupt", e); // we wrote it ourselves
+            } finally {
+                inflater.end();
+            }
+            return ByteBuffer.wrap(chars).asCharBuffer().toString();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.javafxnotepad;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpreters and JVMs started before they are needed. A worker starts, loads what it can without
+ * knowing the program, says "ready" and waits for one line on stdin naming what to run. Execute then
+ * only has to write that line: the interpreter or JVM start is already behind it.
+ *
+ * A worker runs one program and exits, the pool starts its replacement in the background. Reusing
+ * a worker would hand the next run the previous one's modules, globals and threads; a new process
+ * is the only reset that is exact. Workers that died or sat idle too long are replaced too.
+ */
+public class WorkerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkerPool.class);
+
+    private static final int SIZE = Integer.getInteger("notepad.workers.size", 1);
+    private static final long MAX_IDLE_MS = TimeUnit.MINUTES.toMillis(Long.getLong("notepad.workers.maxIdleMinutes", 10));
+    private static final long READY_TIMEOUT_MS = 10_000;
+    private static final byte[] READY = "ready\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Runs the script named on stdin like "python3 -u script.py" would, tracebacks without runpy's frames
+    private static final String PYTHON_WORKER = """
+            import os, runpy, sys, traceback
+            print("ready", flush=True)
+            path = sys.stdin.readline().rstrip("\\n")
+            if not path:
+                sys.exit(0)  # the editor went away
+            sys.argv = [path]
+            sys.path[0] = os.path.dirname(path)
+            try:
+                runpy.run_path(path, run_name="__main__")
+            except SystemExit:
+                raise
+            except BaseException as e:
+                tb = e.__traceback__
+                while tb is not None and tb.tb_frame.f_code.co_filename != path:
+                    tb = tb.tb_next
+                traceback.print_exception(type(e), e, tb)
+                sys.exit(1)
+            """;
+
+    // Loads "classes dir<TAB>class name" read from stdin and runs its main like the java launcher
+    private static final String JAVA_WORKER = """
+            import java.io.*;
+            import java.lang.reflect.*;
+            import java.net.*;
+            import java.nio.file.*;
+            import java.util.Arrays;
+
+            public class NotepadWorker {
+                public static void main(String[] args) throws Exception {
+                    System.out.println("ready");
+                    String line = new BufferedReader(new InputStreamReader(System.in)).readLine();
+                    if (line == null) return; // the editor went away
+                    String[] request = line.split("\\t", 2);
+                    URLClassLoader loader = new URLClassLoader(new URL[]{Path.of(request[0]).toUri().toURL()},
+                            ClassLoader.getPlatformClassLoader());
+                    Thread.currentThread().setContextClassLoader(loader);
+                    Method main;
+                    try {
+                        main = loader.loadClass(request[1]).getMethod("main", String[].class);
+                    } catch (ClassNotFoundException | NoSuchMethodException e) {
+                        System.err.println("Error: Could not find or load main class " + request[1]);
+                        System.exit(1);
+                        return;
+                    }
+                    main.setAccessible(true);
+                    try {
+                        main.invoke(null, (Object) new String[0]);
+                    } catch (InvocationTargetException e) {
+                        Throwable cause = e.getCause();
+                        StackTraceElement[] frames = cause.getStackTrace();
+                        for (int i = 0; i < frames.length; i++) {
+                            if (frames[i].getClassName().startsWith("jdk.internal.reflect.")
+                                    || frames[i].getClassName().equals("java.lang.reflect.Method")) {
+                                cause.setStackTrace(Arrays.copyOf(frames, i));
+                                break;
+                            }
+                        }
+                        System.err.print("Exception in thread \\"main\\" ");
+                        cause.printStackTrace();
+                        System.exit(1);
+                    }
+                }
+            }
+            """;
+
+    private record Worker(Process process, long readyAt) {
+        boolean healthy() {
+            return process.isAlive() && System.currentTimeMillis() - readyAt < MAX_IDLE_MS;
+        }
+    }
+
+    private final String name;
+    private final List<String> command;
+    private final Path directory;
+
+    private final Deque<Worker> spares = new ArrayDeque<>();
+    private int starting = 0;
+    private boolean closed = false;
+    private final ExecutorService starter;
+
+    private WorkerPool(String name, List<String> command, Path directory) {
+        this.name = name;
+        this.command = command;
+        this.directory = directory;
+        this.starter = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name + "-worker-starter");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY); // must not slow down the program that is running
+            return t;
+        });
+    }
+
+    /** Python workers running scripts from directory */
+    public static WorkerPool python(Path directory) {
+        String python = System.getProperty("os.name").toLowerCase().contains("win") ? "python" : "python3";
+        return new WorkerPool("python", List.of(python, "-u", "-c", PYTHON_WORKER), directory);
+    }
+
+    /** JVM workers for compiled classes. The launcher is run from source, so it needs no build of its own. */
+    public static WorkerPool java(Path directory) throws IOException {
+        Path launcher = directory.resolve("worker").resolve("NotepadWorker.java");
+        Files.createDirectories(launcher.getParent());
+        Files.writeString(launcher, JAVA_WORKER);
+        return new WorkerPool("java", List.of("java", launcher.toString()), directory);
+    }
+
+    /** Start the spare workers now, so the first run doesn't wait for them */
+    public synchronized void warmUp() {
+        refill();
+    }
+
+    /**
+     * A ready worker that got request and runs it, stdout and stderr merged. With no spare ready it
+     * starts one right here, which costs what running without a pool did.
+     */
+    public Process take(String request) throws IOException {
+        Worker worker = null;
+        synchronized (this) {
+            while (!spares.isEmpty() && worker == null) {
+                Worker spare = spares.poll();
+                if (spare.healthy()) {
+                    worker = spare;
+                } else {
+                    spare.process().destroyForcibly();
+                }
+            }
+            refill();
+        }
+        if (worker == null) {
+            logger.debug("No warm {} worker, starting one", name);
+            worker = start();
+        }
+
+        OutputStream stdin = worker.process().getOutputStream();
+        stdin.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+        stdin.close(); // the program reads EOF, as without a worker
+        return worker.process();
+    }
+
+    /** Kills the spares. Workers already handed out belong to their run. */
+    public synchronized void close() {
+        closed = true;
+        starter.shutdownNow();
+        spares.forEach(worker -> worker.process().destroyForcibly());
+        spares.clear();
+    }
+
+    // Caller holds the lock
+    private void refill() {
+        while (!closed && spares.size() + starting < SIZE) {
+            starting++;
+            starter.execute(() -> {
+                Worker worker = null;
+                try {
+                    worker = start();
+                } catch (IOException e) {
+                    logger.debug("Could not start a {} worker: {}", name, e.getMessage());
+                }
+                synchronized (this) {
+                    starting--;
+                    if (worker == null) return; // e.g. not installed, take() reports it on Execute
+                    if (closed) {
+                        worker.process().destroyForcibly();
+                    } else {
+                        spares.add(worker);
+                    }
+                }
+            });
+        }
+    }
+
+    private Worker start() throws IOException {
+        long started = System.nanoTime();
+        ProcessBuilder builder = new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true);
+        ProcessSupervisor.isolate(builder); // its run finds everything the program starts by session
+        builder.environment().put("PYTHONUNBUFFERED", "1");
+        Process process = builder.start();
+        try {
+            awaitReady(process);
+        } catch (IOException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+        logger.debug("{} worker ready in {} ms", name, (System.nanoTime() - started) / 1_000_000);
+        return new Worker(process, System.currentTimeMillis());
+    }
+
+    // Reads exactly the "ready" line, so the program's own output is left for the runner
+    private void awaitReady(Process process) throws IOException {
+        InputStream in = process.getInputStream();
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT_MS;
+        int matched = 0;
+        while (matched < READY.length) {
+            if (in.available() > 0) {
+                int b = in.read();
+                if (b != READY[matched]) {
+                    throw new IOException(name + " worker failed to start" + (b == -1 ? "" : ": " + (char) b + readRest(in)));
+                }
+                matched++;
+            } else if (!process.isAlive()) {
+                throw new IOException(name + " worker exited with " + process.exitValue() + readRest(in));
+            } else if (System.currentTimeMillis() > deadline) {
+                throw new IOException(name + " worker not ready after " + READY_TIMEOUT_MS + " ms");
+            } else {
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while starting a " + name + " worker");
+                }
+            }
+        }
+    }
+
+    private static String readRest(InputStream in) throws IOException {
+        byte[] rest = new byte[Math.min(in.available(), 2000)];
+        int n = in.read(rest);
+        return n <= 0 ? "" : new String(rest, 0, n, StandardCharsets.UTF_8);
+    }
+}
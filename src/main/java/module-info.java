@@ -2,8 +2,13 @@ module com.example.javafxnotepad {
     requires javafx.controls;
     requires javafx.fxml;
     requires org.fxmisc.richtext;
+    requires reactfx;
+    requires org.fxmisc.undo;
     requires com.google.gson;
     requires okhttp3;
+    requires jdk.httpserver;
+    requires java.compiler;
+    requires java.management;
     requires java.logging;
     requires org.slf4j;
 